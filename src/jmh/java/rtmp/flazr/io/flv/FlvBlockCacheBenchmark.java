@@ -0,0 +1,144 @@
+package rtmp.flazr.io.flv;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpMessage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1,000 viewers playing 10 flv files, 100 per file at random positions, through the shared {@link FlvBlockCache}
+ * of a given size. The score is messages read per second; the trial prints the hit ratio, the resident bytes
+ * and the bytes read from the files (a block per miss) against the bytes delivered to the viewers.
+ * A viewer keeps the block of its last read referenced, so spread out viewers can hold more than the limit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlvBlockCacheBenchmark {
+
+    private static final int FILES = 10;
+    private static final int VIEWERS = 1000;
+    private static final int SECONDS = 60; // of each file, about 15 MB at 2 Mbit/s
+
+    @Param({"16", "256"})
+    public int cacheMiB;
+
+    private File dir;
+    private FlvReader[] viewers;
+    private int next;
+    private long deliveredBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        RtmpConfig.FLV_BLOCK_CACHE_SIZE = cacheMiB; // before the cache is created
+
+        dir = Files.createTempDirectory("flv-bench").toFile();
+        final Random random = new Random(1);
+        final File[] files = new File[FILES];
+        for (int i = 0; i < FILES; i++) {
+            files[i] = new File(dir, "file" + i + ".flv");
+            writeFile(files[i], random);
+        }
+
+        viewers = new FlvReader[VIEWERS];
+        for (int i = 0; i < VIEWERS; i++) {
+            viewers[i] = new FlvReader(files[i % FILES]);
+            viewers[i].seek(random.nextInt(SECONDS * 1000));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        final FlvBlockCache cache = FlvBlockCache.getInstance();
+        System.out.printf("%n[FlvBlockCacheBenchmark] cache_mib=%d hit_ratio=%.4f hits=%d misses=%d resident_bytes=%d"
+                        + " file_bytes_read=%d delivered_bytes=%d%n",
+                cacheMiB, cache.getHitRatio(), cache.getHits(), cache.getMisses(), cache.getResidentBytes(),
+                cache.getMisses() * cache.getBlockSize(), deliveredBytes);
+        for (FlvReader viewer : viewers) {
+            viewer.close();
+        }
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // one message for the next viewer, who starts over at the end of the file
+    @Benchmark
+    public RtmpMessage read() {
+        final FlvReader viewer = viewers[next];
+        next = (next + 1) % VIEWERS;
+        if (!viewer.hasNext()) {
+            viewer.seek(0);
+        }
+        final RtmpMessage message = viewer.next();
+        deliveredBytes += message.getHeader().getSize();
+        return message;
+    }
+
+    // 25 fps video with a keyframe every 2 seconds, 40 ms audio frames
+    private static void writeFile(final File file, final Random random) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'F', 'L', 'V', 1, 5, 0, 0, 0, 9, 0, 0, 0, 0}));
+            for (int frame = 0; frame < SECONDS * 25; frame++) {
+                final int time = frame * 40;
+                final boolean keyFrame = frame % 50 == 0;
+                final byte[] video = new byte[keyFrame ? 60000 : 6000 + random.nextInt(6000)];
+                random.nextBytes(video);
+                video[0] = (byte) (keyFrame ? 0x17 : 0x27);
+                video[1] = 1;
+                writeTag(channel, 9, time, video);
+
+                final byte[] audio = new byte[200];
+                random.nextBytes(audio);
+                audio[0] = (byte) 0xaf;
+                audio[1] = 1;
+                writeTag(channel, 8, time, audio);
+            }
+        }
+    }
+
+    private static void writeTag(final FileChannel channel, final int type, final int time, final byte[] data) throws IOException {
+        final ByteBuffer tag = ByteBuffer.allocate(11 + data.length + 4);
+        tag.put((byte) type);
+        tag.put((byte) (data.length >> 16)).put((byte) (data.length >> 8)).put((byte) data.length);
+        tag.put((byte) (time >> 16)).put((byte) (time >> 8)).put((byte) time).put((byte) (time >>> 24));
+        tag.put((byte) 0).put((byte) 0).put((byte) 0);
+        tag.put(data);
+        tag.putInt(11 + data.length);
+        tag.flip();
+        while (tag.hasRemaining()) {
+            channel.write(tag);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package rtmp.flazr.rtmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rtmp.flazr.rtmp.message.MessageType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk stream state lookups, {@link ChunkStreamTable} against the full size array it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkStreamTableBenchmark {
+
+    // ids seen in turn on a connection: protocol control, commands, audio and video of a stream
+    private static final int[] LOW_IDS = {2, 3, 4, 5, 6, 4, 6, 4, 6, 4, 6, 8};
+    // the same traffic on ids over 63 (two and three byte basic headers)
+    private static final int[] HIGH_IDS = {64, 300, 4000, 65599, 70, 4000, 70, 4000, 70, 4000, 70, 1000};
+
+    @Param({"low", "high"})
+    public String ids;
+
+    private int[] channelIds;
+    private final ChunkStreamTable<RtmpHeader> table = new ChunkStreamTable<>();
+    private final RtmpHeader[] array = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
+
+    @Setup
+    public void setUp() {
+        channelIds = "low".equals(ids) ? LOW_IDS : HIGH_IDS;
+        for (int channelId : channelIds) {
+            final RtmpHeader header = new RtmpHeader(MessageType.VIDEO);
+            table.put(channelId, header);
+            array[channelId] = header;
+        }
+    }
+
+    @Benchmark
+    public int lookupTable() {
+        int found = 0;
+        for (int channelId : channelIds) {
+            if (table.get(channelId) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int lookupArray() {
+        int found = 0;
+        for (int channelId : channelIds) {
+            if (array[channelId] != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+}
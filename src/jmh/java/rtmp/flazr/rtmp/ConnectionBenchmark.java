@@ -0,0 +1,45 @@
+package rtmp.flazr.rtmp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codec state allocated per connection: run with {@code -prof gc}, gc.alloc.rate.norm is the heap
+ * taken by an idle connection's decoder and encoder, against the chunk stream arrays they used to allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionBenchmark {
+
+    @Benchmark
+    public Object[] connectionChunkDecoder() {
+        return new Object[]{new RtmpChunkDecoder(), new RtmpEncoder()};
+    }
+
+    @Benchmark
+    public Object[] connectionDecoder() {
+        return new Object[]{new RtmpDecoder(), new RtmpEncoder()};
+    }
+
+    // the previous layout: three decoder arrays and one encoder array of MAX_CHANNEL_ID references
+    @Benchmark
+    public Object[] connectionFullArrays() {
+        return new Object[]{
+                new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID],
+                new Object[RtmpHeader.MAX_CHANNEL_ID],
+                new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID],
+                new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID]
+        };
+    }
+
+}
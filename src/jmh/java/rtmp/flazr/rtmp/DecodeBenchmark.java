@@ -0,0 +1,95 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.ChunkSize;
+import rtmp.flazr.rtmp.message.DataMessage;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RtmpDecoder} (replaying) against {@link RtmpChunkDecoder} (incremental) on the same publisher stream,
+ * fed in socket reads of a given size: small reads (slow or bursty uplinks) make the replaying one re-parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private static final int MESSAGES = 250; // 5 seconds of 25 fps video and audio
+
+    @Param({"replaying", "incremental"})
+    public String decoder;
+
+    @Param({"64", "1460"})
+    public int readBytes;
+
+    @Param({"128", "4096"})
+    public int chunkSize;
+
+    private byte[] wire;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(1);
+        final RtmpEncoder encoder = new RtmpEncoder();
+        final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        if (chunkSize != 128) {
+            out.writeBytes(encoder.encode(new ChunkSize(chunkSize)));
+        }
+
+        for (int i = 0; i < MESSAGES; i++) {
+            final boolean video = i % 2 == 0;
+            // a keyframe every 2 seconds, inter frames of a few KB, 40 ms audio frames
+            final byte[] payload = new byte[video ? (i % 100 == 0 ? 60000 : 2000 + random.nextInt(6000)) : 200];
+            random.nextBytes(payload);
+            final DataMessage message = video
+                    ? new Video(0, ChannelBuffers.wrappedBuffer(payload))
+                    : new Audio(0, ChannelBuffers.wrappedBuffer(payload));
+            message.getHeader().setTimestamp(1 + i / 2 * 40L);
+            message.getHeader().setStreamId(1);
+            out.writeBytes(encoder.encode(message));
+        }
+
+        wire = new byte[out.readableBytes()];
+        out.readBytes(wire);
+    }
+
+    private ChannelUpstreamHandler newDecoder() {
+        return "replaying".equals(decoder) ? new RtmpDecoder() : new RtmpChunkDecoder();
+    }
+
+    // one publisher connection: the whole stream read by a new decoder, returns the decoded message count
+    @Benchmark
+    public int decode() {
+        final DecoderEmbedder<Object> embedder = new DecoderEmbedder<>(newDecoder());
+        int count = 0;
+        for (int offset = 0; offset < wire.length; offset += readBytes) {
+            embedder.offer(ChannelBuffers.wrappedBuffer(wire, offset, Math.min(readBytes, wire.length - offset)));
+            while (embedder.poll() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
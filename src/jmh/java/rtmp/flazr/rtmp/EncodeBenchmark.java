@@ -0,0 +1,75 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rtmp.flazr.rtmp.message.ChunkSize;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One live video frame encoded for every subscriber of a stream, by encoding mode:
+ * copy (a chunked copy per subscriber), composite (chunk headers around payload slices, server.composite_encoding)
+ * and shared (encoded once, then duplicated for the subscribers with the same state, server.shared_encoding).
+ * Run with {@code -prof gc} for the bytes allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({"copy", "composite", "shared"})
+    public String mode;
+
+    @Param({"4096", "204800"}) // an inter frame, a keyframe
+    public int frameBytes;
+
+    @Param({"1", "100"})
+    public int subscribers;
+
+    private byte[] payload;
+    private RtmpEncoder[] encoders;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        RtmpConfig.SHARED_ENCODING = "shared".equals(mode);
+        RtmpConfig.COMPOSITE_ENCODING = "composite".equals(mode);
+
+        payload = new byte[frameBytes];
+        new Random(1).nextBytes(payload);
+        encoders = new RtmpEncoder[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            encoders[i] = new RtmpEncoder();
+            encoders[i].encode(new ChunkSize(4096));
+        }
+    }
+
+    @Benchmark
+    public void encode(final Blackhole blackhole) {
+        final Video video = new Video(0, ChannelBuffers.wrappedBuffer(payload));
+        video.getHeader().setTimestamp(time += 40);
+        video.getHeader().setStreamId(1);
+        for (RtmpEncoder encoder : encoders) {
+            final ChannelBuffer out = encoder.encode(video);
+            blackhole.consume(out.readableBytes());
+        }
+    }
+
+}
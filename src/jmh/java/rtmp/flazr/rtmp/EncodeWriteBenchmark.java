@@ -0,0 +1,81 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rtmp.flazr.rtmp.message.ChunkSize;
+import rtmp.flazr.rtmp.message.Video;
+import rtmp.flazr.rtmp.server.BenchChannel;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One video frame written to 100 subscribers through their pipelines ({@link RtmpEncoder} on a channel whose
+ * writes complete at once) with the per subscriber encoding (shared encoding off, as for rtmpe),
+ * with and without the {@link EncodeBufferPool} (server.encoder_pool_size MiB).
+ * Run with {@code -prof gc} for the bytes allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeWriteBenchmark {
+
+    private static final int SUBSCRIBERS = 100;
+
+    @Param({"0", "16"})
+    public int poolMiB;
+
+    @Param({"4096", "32768"})
+    public int frameBytes;
+
+    private byte[] payload;
+    private Channel[] channels;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        RtmpConfig.SHARED_ENCODING = false;
+        RtmpConfig.COMPOSITE_ENCODING = false;
+        RtmpConfig.ENCODER_POOL_SIZE = poolMiB; // before the pool is created
+
+        payload = new byte[frameBytes];
+        new Random(1).nextBytes(payload);
+        channels = new Channel[SUBSCRIBERS];
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            channels[i] = new BenchChannel(Channels.pipeline(new RtmpEncoder()));
+            channels[i].write(new ChunkSize(4096));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%n[EncodeWriteBenchmark] pool_mib=%d %s%n", poolMiB, EncodeBufferPool.getInstance());
+    }
+
+    @Benchmark
+    public void write() {
+        final Video video = new Video(0, ChannelBuffers.wrappedBuffer(payload));
+        video.getHeader().setTimestamp(time += 40);
+        video.getHeader().setStreamId(1);
+        for (Channel channel : channels) {
+            channel.write(video);
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpEncoder;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Aggregate;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.ChunkSize;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A live stream (25 fps video with a keyframe every 2 seconds, an audio frame every 23 ms) written to 1,000 viewers
+ * through their encoders, as is (duration 0) or packed into aggregates of the given duration the way
+ * {@code ServerStream} packs them. The score is media messages per second of the publisher, the CPU spent on them;
+ * the trial prints the messages and chunks written per viewer per media message (socket writes and chunk headers).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregatePackerBenchmark {
+
+    private static final int VIEWERS = 1000;
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"0", "100", "200"})
+    public int duration;
+
+    private final Random random = new Random(1);
+    private final byte[] keyFrame = new byte[30000];
+    private final byte[] interFrame = new byte[6000];
+    private final byte[] audioFrame = new byte[300];
+    private SubscriberGroup viewers;
+    private BenchChannel[] channels;
+    private AggregatePacker packer;
+    private long videoTime;
+    private long audioTime;
+    private int frame;
+    private long mediaMessages;
+    private long writtenMessages;
+    private long writtenChunks;
+
+    @Setup
+    public void setUp() {
+        RtmpConfig.SHARED_ENCODING = true;
+        random.nextBytes(keyFrame);
+        random.nextBytes(interFrame);
+        random.nextBytes(audioFrame);
+        keyFrame[0] = 0x17;
+        interFrame[0] = 0x27;
+        keyFrame[1] = interFrame[1] = 1;
+        audioFrame[0] = (byte) 0xaf;
+        audioFrame[1] = 1;
+
+        viewers = new SubscriberGroup();
+        channels = new BenchChannel[VIEWERS];
+        for (int i = 0; i < VIEWERS; i++) {
+            channels[i] = new BenchChannel(Channels.pipeline(new RtmpEncoder()));
+            channels[i].write(new ChunkSize(CHUNK_SIZE));
+            viewers.add(channels[i], Thread.currentThread(), Collections.emptyList());
+        }
+        packer = duration > 0 ? new AggregatePacker(duration) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        long sunkWrites = 0;
+        for (BenchChannel channel : channels) {
+            sunkWrites += channel.getSunkWrites() - 1; // not the chunk size
+        }
+        System.out.printf("%n[AggregatePackerBenchmark] duration=%d messages_per_media=%.3f chunks_per_media=%.3f"
+                        + " writes_per_media=%.3f%n",
+                duration, (double) writtenMessages / mediaMessages, (double) writtenChunks / mediaMessages,
+                (double) sunkWrites / VIEWERS / mediaMessages);
+    }
+
+    // the next media message of the stream, by time
+    @Benchmark
+    public void publish() {
+        final RtmpMessage message;
+        if (audioTime <= videoTime) {
+            message = new Audio(0, ChannelBuffers.wrappedBuffer(audioFrame));
+            message.getHeader().setTimestamp(audioTime += 23);
+        } else {
+            message = new Video(0, ChannelBuffers.wrappedBuffer(frame++ % 50 == 0 ? keyFrame : interFrame));
+            message.getHeader().setTimestamp(videoTime += 40);
+        }
+        message.getHeader().setStreamId(1);
+        mediaMessages++;
+
+        if (packer == null) {
+            write(message);
+            return;
+        }
+        final Aggregate aggregate = packer.add(message);
+        if (aggregate != null) {
+            write(aggregate);
+        }
+    }
+
+    private void write(final RtmpMessage message) {
+        viewers.write(message);
+        writtenMessages++;
+        writtenChunks += (message.getHeader().getSize() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+}
@@ -0,0 +1,81 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.MessageEvent;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * A connected channel without a socket for the benchmarks: writes go through its pipeline
+ * (empty unless given one) and complete at once, a close closes it.
+ */
+public final class BenchChannel extends AbstractChannel {
+
+    private static final SocketAddress ADDRESS = new InetSocketAddress("127.0.0.1", 1935);
+
+    private final ChannelConfig config = new DefaultChannelConfig();
+
+    private long sunkWrites; // writes that reached the sink, the socket writes of a real channel
+
+    public BenchChannel() {
+        this(Channels.pipeline());
+    }
+
+    public BenchChannel(final ChannelPipeline pipeline) {
+        super(null, null, pipeline, new Sink());
+    }
+
+    public long getSunkWrites() {
+        return sunkWrites;
+    }
+
+    @Override
+    public ChannelConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isOpen();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return ADDRESS;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return ADDRESS;
+    }
+
+    private static final class Sink extends AbstractChannelSink {
+        @Override
+        public void eventSunk(final ChannelPipeline pipeline, final ChannelEvent e) {
+            final BenchChannel channel = (BenchChannel) e.getChannel();
+            if (e instanceof MessageEvent) {
+                channel.sunkWrites++;
+            } else if (e instanceof ChannelStateEvent
+                    && ((ChannelStateEvent) e).getState() == ChannelState.OPEN
+                    && Boolean.FALSE.equals(((ChannelStateEvent) e).getValue())) {
+                channel.setClosed();
+            }
+            e.getFuture().setSuccess();
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package rtmp.flazr.rtmp.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a connection's {@link ServerHandler} with a given number of idle connections open:
+ * the score (with {@code -prof gc}) is the time and heap of one more handler, and the trial prints
+ * the threads the open connections added and the process cpu they use in one idle second.
+ * Both should stay flat as connections grow, nothing is scheduled per connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionThreadsBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int connections;
+
+    private ServerHandler[] handlers;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int before = threads.getThreadCount();
+
+        handlers = new ServerHandler[connections];
+        for (int i = 0; i < connections; i++) {
+            handlers[i] = new ServerHandler();
+        }
+
+        final long cpuBefore = getProcessCpuNanos();
+        Thread.sleep(1000);
+        final long idleCpu = getProcessCpuNanos() - cpuBefore;
+
+        System.out.printf("%n[ConnectionThreadsBenchmark] connections=%d threads_added=%d idle_cpu_ms_per_s=%.1f%n",
+                connections, threads.getThreadCount() - before, idleCpu / 1e6);
+    }
+
+    @TearDown
+    public void tearDown() {
+        handlers = null;
+    }
+
+    @Benchmark
+    public ServerHandler openConnection() {
+        return new ServerHandler();
+    }
+
+    private static long getProcessCpuNanos() {
+        final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,151 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Viewers joining and leaving a stream while it broadcasts: one publisher thread writes each frame to every
+ * subscriber, three threads add and remove viewers. {@link SubscriberRegistry} against the channel group
+ * and channel id list (behind a lock) it replaced. The broadcast and churn rates are reported separately.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriberStormBenchmark {
+
+    private static final int CHURN_CHANNELS = 256; // per churn thread
+
+    @Param({"registry", "channelGroup"})
+    public String subscribers;
+
+    @Param({"1000"})
+    public int viewers;
+
+    private Subscribers target;
+    private Video frame;
+
+    interface Subscribers {
+        void add(Channel channel);
+
+        void remove(Channel channel);
+
+        void write(Object message);
+    }
+
+    static final class RegistrySubscribers implements Subscribers {
+        private final SubscriberRegistry registry = new SubscriberRegistry();
+
+        @Override
+        public void add(final Channel channel) {
+            registry.add(channel);
+        }
+
+        @Override
+        public void remove(final Channel channel) {
+            registry.remove(channel);
+        }
+
+        @Override
+        public void write(final Object message) {
+            registry.write(message);
+        }
+    }
+
+    // what ServerStream kept before the registry
+    static final class GroupSubscribers implements Subscribers {
+        private final ChannelGroup group = new DefaultChannelGroup("bench");
+        private final List<String> channelIds = new ArrayList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        @Override
+        public void add(final Channel channel) {
+            lock.lock();
+            try {
+                group.add(channel);
+                channelIds.add(channel.getId() + "");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void remove(final Channel channel) {
+            lock.lock();
+            try {
+                group.remove(channel);
+                channelIds.remove(channel.getId() + "");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void write(final Object message) {
+            group.write(message);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Churn {
+        private final Channel[] channels = new Channel[CHURN_CHANNELS];
+        private int next;
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = new BenchChannel();
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        target = "registry".equals(subscribers) ? new RegistrySubscribers() : new GroupSubscribers();
+        for (int i = 0; i < viewers; i++) {
+            target.add(new BenchChannel());
+        }
+        frame = new Video(0, ChannelBuffers.wrappedBuffer(new byte[4096]));
+    }
+
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(1)
+    public void broadcast() {
+        target.write(frame);
+    }
+
+    @Benchmark
+    @Group("storm")
+    @GroupThreads(3)
+    public void joinLeave(final Churn churn) {
+        final Channel channel = churn.channels[churn.next];
+        churn.next = (churn.next + 1) % churn.channels.length;
+        target.add(channel);
+        target.remove(channel);
+    }
+
+}
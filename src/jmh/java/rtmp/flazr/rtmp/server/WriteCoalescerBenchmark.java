@@ -0,0 +1,105 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpEncoder;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.ChunkSize;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One 300 byte audio frame written to 1,000 viewers (encoder, then coalescer when on, on channels whose writes
+ * complete at once) every millisecond (or as fast as the writes allow), the AAC cadence of 23 ms sped up so a
+ * trial sees enough frames.
+ * The score is frames per second; the trial prints the writes that reached the channels (the socket writes
+ * of real ones) per message and the average and max delay the coalescer added.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class WriteCoalescerBenchmark {
+
+    private static final int VIEWERS = 1000;
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Param({"0", "16384"})
+    public int coalesceBytes;
+
+    @Param({"1", "5", "20"})
+    public int coalesceDelay;
+
+    private final byte[] payload = new byte[300];
+    private BenchChannel[] channels;
+    private WriteCoalescer[] coalescers;
+    private long time;
+    private long messages;
+
+    @Setup
+    public void setUp() {
+        RtmpConfig.SHARED_ENCODING = true;
+        payload[0] = (byte) 0xaf;
+        payload[1] = 1;
+        channels = new BenchChannel[VIEWERS];
+        coalescers = new WriteCoalescer[VIEWERS];
+        for (int i = 0; i < VIEWERS; i++) {
+            final ChannelPipeline pipeline = Channels.pipeline();
+            if (coalesceBytes > 0) {
+                coalescers[i] = new WriteCoalescer(coalesceBytes, coalesceDelay);
+                pipeline.addLast("coalescer", coalescers[i]);
+            }
+            pipeline.addLast("encoder", new RtmpEncoder());
+            channels[i] = new BenchChannel(pipeline);
+            channels[i].write(new ChunkSize(4096));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        long sunkWrites = 0;
+        long totalDelay = 0;
+        long maxDelay = 0;
+        for (int i = 0; i < VIEWERS; i++) {
+            sunkWrites += channels[i].getSunkWrites() - 1; // not the chunk size
+            if (coalescers[i] != null) {
+                totalDelay += coalescers[i].getAverageDelay();
+                maxDelay = Math.max(maxDelay, coalescers[i].getMaxDelay());
+            }
+        }
+        System.out.printf("%n[WriteCoalescerBenchmark] coalesce_bytes=%d coalesce_delay_ms=%d writes_per_message=%.3f"
+                        + " avg_delay_us=%d max_delay_us=%d%n",
+                coalesceBytes, coalesceDelay, (double) sunkWrites / messages,
+                TimeUnit.NANOSECONDS.toMicros(totalDelay / VIEWERS), TimeUnit.NANOSECONDS.toMicros(maxDelay));
+    }
+
+    @Benchmark
+    public void write() {
+        final Audio audio = new Audio(0, ChannelBuffers.wrappedBuffer(payload));
+        audio.getHeader().setTimestamp(time += 23);
+        audio.getHeader().setStreamId(1);
+        for (BenchChannel channel : channels) {
+            channel.write(audio);
+        }
+        messages += VIEWERS;
+        LockSupport.parkNanos(FRAME_INTERVAL_NANOS);
+    }
+
+}
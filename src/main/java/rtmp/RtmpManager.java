@@ -1,5 +1,6 @@
 package rtmp;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.group.ChannelGroup;
@@ -8,8 +9,12 @@ import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rtmp.flazr.io.flv.FlvWriter;
 import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.server.FanOutLanes;
+import rtmp.flazr.rtmp.server.LoopedPlayout;
 import rtmp.flazr.rtmp.server.ServerPipelineFactory;
+import rtmp.flazr.rtmp.server.VodEngine;
 import service.AppInstance;
 import service.resource.ResourceManager;
 import service.resource.StreamIdManager;
@@ -57,7 +62,16 @@ public class RtmpManager {
     }
 
     private void initRtmpServer() {
-        factory = new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        // netty 3 hands each accepted channel to the next worker round-robin and keeps it there,
+        // so the worker count bounds the I/O threads (one boss thread per bound port).
+        // the only transport: the codecs, the handler and the stream / subscriber classes are written against
+        // netty 3 channels and buffers, a netty 4 (epoll) transport would need a port of all of them, not a second
+        // bootstrap next to this one
+        factory = new NioServerSocketChannelFactory(
+                Executors.newFixedThreadPool(RtmpConfig.BOSS_THREAD_COUNT, newThreadFactory("RtmpBoss-%d")),
+                Executors.newFixedThreadPool(RtmpConfig.WORKER_THREAD_COUNT, newThreadFactory("RtmpWorker-%d")),
+                RtmpConfig.WORKER_THREAD_COUNT
+        );
         ServerBootstrap bootstrap = new ServerBootstrap(factory);
         bootstrap.setPipelineFactory(new ServerPipelineFactory());
         bootstrap.setOption("child.tcpNoDelay", true);
@@ -65,7 +79,17 @@ public class RtmpManager {
 
         final InetSocketAddress socketAddress = new InetSocketAddress(RtmpConfig.SERVER_PORT);
         bootstrap.bind(socketAddress);
-        logger.info("[RtmpManager] RTMP Server started, listening on: [{}]", socketAddress);
+        logger.info("[RtmpManager] RTMP Server started, listening on: [{}] (boss={}, worker={})",
+                socketAddress, RtmpConfig.BOSS_THREAD_COUNT, RtmpConfig.WORKER_THREAD_COUNT
+        );
+    }
+
+    private static BasicThreadFactory newThreadFactory(String namingPattern) {
+        return new BasicThreadFactory
+                .Builder()
+                .namingPattern(namingPattern)
+                .daemon(true)
+                .build();
     }
 
     public void loadAuthList() {
@@ -121,10 +145,14 @@ public class RtmpManager {
         final ChannelGroupFuture future = channels.close();
         logger.info("[RtmpManager] Closing rtmp channels...");
         future.awaitUninterruptibly();
-        /*if (factory != null) {
+        FanOutLanes.getInstance().stop();
+        LoopedPlayout.stopAll();
+        VodEngine.getInstance().stop();
+        FlvWriter.shutdown();
+        if (factory != null) {
             logger.info("[RtmpManager] Releasing rtmp resources...");
             factory.releaseExternalResources();
-        }*/
+        }
         logger.info("[RtmpManager] RTMP Server stopped.");
     }
     ////////////////////////////////////////////////////////////
@@ -0,0 +1,272 @@
+package rtmp.flazr.io.flv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpConfig;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Blocks of flv files ({@code FLV_BLOCK_SIZE} aligned, off heap) shared by all the readers of a file,
+ * so viewers playing the same file at nearby positions read it from disk once.
+ * A block is read by the first reader asking for it (the others wait for it), counted as referenced until
+ * released, and only evicted (least recently released first) while unreferenced once the resident bytes go over
+ * {@code FLV_BLOCK_CACHE_SIZE} MiB: referenced blocks are kept out of the eviction order, so eviction never
+ * walks past them. Message payloads are slices of a block, an evicted block is freed
+ * once the last of them was written.
+ * Files are told apart by path, size and modification time, blocks of a changed file just age out.
+ */
+public class FlvBlockCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvBlockCache.class);
+    private static FlvBlockCache flvBlockCache = null;
+
+    private static final class Key {
+        private final String path;
+        private final long fileSize;
+        private final long lastModified;
+        private final long blockIndex;
+
+        private Key(String path, long fileSize, long lastModified, long blockIndex) {
+            this.path = path;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key key = (Key) o;
+            return fileSize == key.fileSize && lastModified == key.lastModified && blockIndex == key.blockIndex && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, fileSize, lastModified, blockIndex);
+        }
+    }
+
+    public static final class Block {
+        private final Key key;
+        private final long start; // in the file
+        private final int length;
+        private int refCount; // cache monitor
+        private ByteBuffer data; // null while loading
+        private IOException failure;
+
+        private Block(Key key, long start, int length) {
+            this.key = key;
+            this.start = start;
+            this.length = length;
+        }
+
+        private void load(final FileChannel channel) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+            IOException loadFailure = null;
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        throw new EOFException("flv file is shorter than expected at " + (start + buffer.position()));
+                    }
+                }
+                buffer.flip();
+            } catch (IOException e) {
+                loadFailure = e;
+            }
+
+            synchronized (this) {
+                if (loadFailure == null) {
+                    data = buffer;
+                } else {
+                    failure = loadFailure;
+                }
+                notifyAll();
+            }
+            if (loadFailure != null) {
+                throw loadFailure;
+            }
+        }
+
+        private synchronized void await() throws IOException {
+            boolean interrupted = false;
+            while (data == null && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        // bytes of the block from the offset, sharing its memory
+        public ByteBuffer slice(final int offset, final int sliceLength) {
+            final ByteBuffer buffer = data.duplicate();
+            buffer.limit(offset + sliceLength);
+            buffer.position(offset);
+            return buffer.slice();
+        }
+    }
+
+    private final int blockSize;
+    private final long maxBytes;
+    private final Map<Key, Block> blocks = new HashMap<>(1024);
+    private final LinkedHashMap<Key, Block> unreferenced = new LinkedHashMap<>(1024); // eviction order
+    private long residentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    FlvBlockCache(int blockSize, long maxBytes) {
+        this.blockSize = blockSize;
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized FlvBlockCache getInstance() {
+        if (flvBlockCache == null) {
+            flvBlockCache = new FlvBlockCache(RtmpConfig.FLV_BLOCK_SIZE, (long) RtmpConfig.FLV_BLOCK_CACHE_SIZE << 20);
+        }
+
+        return flvBlockCache;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * the block of the file, read through the channel when it is not cached; release it when done with it
+     */
+    public Block acquire(final String path, final long fileSize, final long lastModified,
+                         final FileChannel channel, final long blockIndex) throws IOException {
+        final Key key = new Key(path, fileSize, lastModified, blockIndex);
+        final Block block;
+        final boolean load;
+        synchronized (this) {
+            Block cached = blocks.get(key);
+            if (cached != null && cached.failure == null) {
+                hits++;
+                load = false;
+            } else {
+                if (cached != null) { // failed, its readers are about to let go of it
+                    blocks.remove(key);
+                    unreferenced.remove(key);
+                    residentBytes -= cached.length;
+                }
+                final long start = blockIndex * blockSize;
+                cached = new Block(key, start, (int) Math.min(blockSize, fileSize - start));
+                blocks.put(key, cached);
+                residentBytes += cached.length;
+                misses++;
+                load = true;
+            }
+            block = cached;
+            if (block.refCount++ == 0) {
+                unreferenced.remove(key);
+            }
+            evict();
+        }
+
+        try {
+            if (load) {
+                block.load(channel);
+            } else {
+                block.await();
+            }
+        } catch (IOException e) {
+            if (load) {
+                logger.warn("[FlvBlockCache] Fail to read block {} of {}", blockIndex, path, e);
+            }
+            synchronized (this) {
+                block.refCount--;
+                if (blocks.get(key) == block) {
+                    blocks.remove(key);
+                    unreferenced.remove(key);
+                    residentBytes -= block.length;
+                }
+            }
+            throw e;
+        }
+        return block;
+    }
+
+    public synchronized void release(final Block block) {
+        if (block == null) {
+            return;
+        }
+        if (--block.refCount == 0 && blocks.get(block.key) == block) {
+            unreferenced.put(block.key, block);
+        }
+        evict();
+    }
+
+    // unreferenced blocks, least recently released first
+    private void evict() {
+        final Iterator<Block> iterator = unreferenced.values().iterator();
+        while (residentBytes > maxBytes && iterator.hasNext()) {
+            final Block block = iterator.next();
+            iterator.remove();
+            blocks.remove(block.key);
+            residentBytes -= block.length;
+            evictions++;
+        }
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized int getBlockCount() {
+        return blocks.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FlvBlockCache{" +
+                "blocks=" + blocks.size() +
+                ", residentBytes=" + residentBytes +
+                ", maxBytes=" + maxBytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", hitRatio=" + String.format("%.3f", getHitRatio()) +
+                ", evictions=" + evictions +
+                '}';
+    }
+
+}
@@ -0,0 +1,258 @@
+package rtmp.flazr.io.flv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Seek points of an flv file (video keyframes, or about one per second of audio for files without video)
+ * in time order, plus the positions of the metadata and codec config tags sent before playback.
+ * Positions are tag starts in the file, -1 when there is no such tag.
+ * An index is saved next to its file ({@code <file>.idx}, 12 bytes per seek point) and only loaded back
+ * while the file still has the size and modification time it was built for.
+ */
+public class FlvIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvIndex.class);
+
+    private static final int AUDIO_SEEK_INTERVAL = 1000; // millis
+    private static final int MAGIC = 0x464c5649; // "FLVI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8 + 8 + 8 + 8 + 4 + 1 + 4;
+
+    private long[] positions = new long[256];
+    private int[] times = new int[256];
+    private int count;
+    private boolean videoSeekPoints;
+
+    private long metadataPosition = -1;
+    private long videoConfigPosition = -1;
+    private long audioConfigPosition = -1;
+    private long dataStart; // first tag
+    private long dataEnd; // end of the last complete tag
+    private int duration; // time of the last tag, millis
+
+    private long fileSize; // of the file it was built for
+    private long fileLastModified;
+
+    public static File getIndexFile(final File file) {
+        return new File(file.getPath() + ".idx");
+    }
+
+    // written to a temporary file first, a reader never sees a partial index
+    public void save(final File indexFile) {
+        final File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(fileLastModified);
+            out.writeLong(dataStart);
+            out.writeLong(dataEnd);
+            out.writeLong(metadataPosition);
+            out.writeLong(videoConfigPosition);
+            out.writeLong(audioConfigPosition);
+            out.writeInt(duration);
+            out.writeBoolean(videoSeekPoints);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(times[i]);
+                out.writeLong(positions[i]);
+            }
+        } catch (IOException e) {
+            logger.warn("[FlvIndex] Fail to save {}", indexFile.getAbsolutePath(), e);
+            tempFile.delete();
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("[FlvIndex] Fail to save {}", indexFile.getAbsolutePath(), e);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @return the saved index, null when there is none or it does not match the file (size, modification time)
+     */
+    public static FlvIndex load(final File indexFile, final long fileSize, final long fileLastModified) {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            final FlvIndex index = new FlvIndex();
+            index.fileSize = in.readLong();
+            index.fileLastModified = in.readLong();
+            if (index.fileSize != fileSize || index.fileLastModified != fileLastModified) {
+                return null;
+            }
+            index.dataStart = in.readLong();
+            index.dataEnd = in.readLong();
+            index.metadataPosition = in.readLong();
+            index.videoConfigPosition = in.readLong();
+            index.audioConfigPosition = in.readLong();
+            index.duration = in.readInt();
+            index.videoSeekPoints = in.readBoolean();
+            final int count = in.readInt();
+            if (count < 0 || indexFile.length() != HEADER_SIZE + count * 12L || index.dataEnd > fileSize) {
+                return null;
+            }
+            index.positions = new long[Math.max(count, 1)];
+            index.times = new int[Math.max(count, 1)];
+            for (int i = 0; i < count; i++) {
+                index.times[i] = in.readInt();
+                index.positions[i] = in.readLong();
+                if (index.positions[i] < index.dataStart || index.positions[i] >= index.dataEnd) {
+                    return null;
+                }
+            }
+            index.count = count;
+            return index;
+        } catch (IOException e) {
+            logger.warn("[FlvIndex] Fail to load {}", indexFile.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    void addKeyFrame(final int time, final long position) {
+        if (!videoSeekPoints) { // audio seek points are only kept until the first keyframe
+            videoSeekPoints = true;
+            count = 0;
+        }
+        add(time, position);
+    }
+
+    void addAudio(final int time, final long position) {
+        if (videoSeekPoints || (count > 0 && time - times[count - 1] < AUDIO_SEEK_INTERVAL)) {
+            return;
+        }
+        add(time, position);
+    }
+
+    private void add(final int time, final long position) {
+        if (count == positions.length) {
+            positions = Arrays.copyOf(positions, count * 2);
+            times = Arrays.copyOf(times, count * 2);
+        }
+        positions[count] = position;
+        times[count] = time;
+        count++;
+    }
+
+    /**
+     * @return the index of the last seek point at or before the time, 0 before the first one, -1 when there is none
+     */
+    public int find(final int time) {
+        if (count == 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (times[mid] <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getPosition(final int index) {
+        return positions[index];
+    }
+
+    public int getTime(final int index) {
+        return times[index];
+    }
+
+    public long getMetadataPosition() {
+        return metadataPosition;
+    }
+
+    void setMetadataPosition(long metadataPosition) {
+        this.metadataPosition = metadataPosition;
+    }
+
+    public long getVideoConfigPosition() {
+        return videoConfigPosition;
+    }
+
+    void setVideoConfigPosition(long videoConfigPosition) {
+        this.videoConfigPosition = videoConfigPosition;
+    }
+
+    public long getAudioConfigPosition() {
+        return audioConfigPosition;
+    }
+
+    void setAudioConfigPosition(long audioConfigPosition) {
+        this.audioConfigPosition = audioConfigPosition;
+    }
+
+    public long getDataStart() {
+        return dataStart;
+    }
+
+    void setDataStart(long dataStart) {
+        this.dataStart = dataStart;
+    }
+
+    public long getDataEnd() {
+        return dataEnd;
+    }
+
+    void setDataEnd(long dataEnd) {
+        this.dataEnd = dataEnd;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getFileLastModified() {
+        return fileLastModified;
+    }
+
+    void setFile(long fileSize, long fileLastModified) {
+        this.fileSize = fileSize;
+        this.fileLastModified = fileLastModified;
+    }
+
+    @Override
+    public String toString() {
+        return "FlvIndex{" +
+                "seekPoints=" + count +
+                ", videoSeekPoints=" + videoSeekPoints +
+                ", metadataPosition=" + metadataPosition +
+                ", videoConfigPosition=" + videoConfigPosition +
+                ", audioConfigPosition=" + audioConfigPosition +
+                ", dataStart=" + dataStart +
+                ", dataEnd=" + dataEnd +
+                ", duration=" + duration +
+                '}';
+    }
+
+}
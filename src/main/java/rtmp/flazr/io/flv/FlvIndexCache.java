@@ -0,0 +1,104 @@
+package rtmp.flazr.io.flv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpConfig;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Seek indexes of flv files, least recently used ones dropped past {@code FLV_INDEX_CACHE_SIZE}.
+ * A miss loads the file's saved index ({@code <file>.idx}), or builds it (a scan of the file) and saves it,
+ * so a file is only scanned the first time it is played and again once it changed (size, modification time).
+ * Indexes are not modified once built, readers of the same file share one.
+ */
+public class FlvIndexCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvIndexCache.class);
+    private static FlvIndexCache flvIndexCache = null;
+
+    private final int maxSize;
+    private final Map<String, FlvIndex> indexes;
+
+    private long hits;
+    private long loads;
+    private long builds;
+
+    private FlvIndexCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.indexes = new LinkedHashMap<String, FlvIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FlvIndex> eldest) {
+                return size() > FlvIndexCache.this.maxSize;
+            }
+        };
+    }
+
+    public static synchronized FlvIndexCache getInstance() {
+        if (flvIndexCache == null) {
+            flvIndexCache = new FlvIndexCache(RtmpConfig.FLV_INDEX_CACHE_SIZE);
+        }
+
+        return flvIndexCache;
+    }
+
+    /**
+     * @param builder scans the file, called without holding the cache
+     */
+    public FlvIndex get(final File file, final long size, final Supplier<FlvIndex> builder) {
+        final String key = file.getAbsolutePath();
+        final long lastModified = file.lastModified();
+        synchronized (this) {
+            final FlvIndex index = indexes.get(key);
+            if (index != null && index.getFileSize() == size && index.getFileLastModified() == lastModified) {
+                hits++;
+                return index;
+            }
+        }
+
+        final File indexFile = FlvIndex.getIndexFile(file);
+        FlvIndex index = FlvIndex.load(indexFile, size, lastModified);
+        if (index != null) {
+            synchronized (this) {
+                loads++;
+            }
+            logger.debug("[FlvIndexCache] Loaded {}", indexFile.getAbsolutePath());
+        } else {
+            index = builder.get();
+            index.setFile(size, lastModified);
+            index.save(indexFile);
+            synchronized (this) {
+                builds++;
+            }
+            logger.info("[FlvIndexCache] Built {} ({})", indexFile.getAbsolutePath(), index);
+        }
+
+        synchronized (this) {
+            indexes.put(key, index);
+        }
+        return index;
+    }
+
+    public synchronized void remove(final File file) {
+        indexes.remove(file.getAbsolutePath());
+    }
+
+    public synchronized int getSize() {
+        return indexes.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FlvIndexCache{" +
+                "size=" + indexes.size() +
+                ", maxSize=" + maxSize +
+                ", hits=" + hits +
+                ", loads=" + loads +
+                ", builds=" + builds +
+                '}';
+    }
+
+}
@@ -0,0 +1,352 @@
+package rtmp.flazr.io.flv;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpHeader;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.RtmpReader;
+import rtmp.flazr.rtmp.message.Aggregate;
+import rtmp.flazr.rtmp.message.MessageType;
+import rtmp.flazr.rtmp.message.Metadata;
+import rtmp.flazr.rtmp.message.MetadataAmf0;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads an flv file through the {@link FlvBlockCache} shared by all readers, message payloads are slices
+ * of the cached blocks (no copy, a range over a block boundary is a composite of both).
+ * The reader keeps the block of its last read referenced, so the blocks being played stay cached.
+ * The seek points are indexed by one pass over the tag headers the first time the file is opened,
+ * later opens get the index from the {@link FlvIndexCache} (memory, or the file saved next to the flv file).
+ */
+public class FlvReader implements RtmpReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvReader.class);
+
+    private static final int TAG_HEADER_SIZE = 11;
+    private static final int PREV_TAG_SIZE = 4;
+    private static final int MAX_AGGREGATE_BYTES = 1 << 20;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private final String path;
+    private final long lastModified;
+    private final FlvBlockCache blockCache = FlvBlockCache.getInstance();
+    private FlvBlockCache.Block pinned; // block of the last read
+    private final FlvIndex index;
+    private final Metadata metadata;
+    private RtmpMessage[] startMessages;
+
+    private long position;
+    private long timePosition;
+    private int aggregateDuration;
+
+    public FlvReader(final File file) {
+        this.file = file;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            size = channel.size();
+            path = file.getAbsolutePath();
+            lastModified = file.lastModified();
+            final long dataStart = readDataStart();
+            index = FlvIndexCache.getInstance().get(file, size, () -> buildIndex(dataStart));
+        } catch (IOException e) {
+            throw new RuntimeException("unable to open flv file: " + file, e);
+        }
+        metadata = readMetadata();
+        position = index.getDataStart();
+        logger.info("[FlvReader] Opened {} ({})", file.getAbsolutePath(), index);
+    }
+
+    // flv header: 'FLV', version, flags, data offset; then the first previous tag size (0)
+    private long readDataStart() throws IOException {
+        if (size < 13) {
+            throw new IOException("too short for an flv file: " + file);
+        }
+        final ChannelBuffer header = readDirect(0, 9);
+        if (header.getByte(0) != 'F' || header.getByte(1) != 'L' || header.getByte(2) != 'V') {
+            throw new IOException("not an flv file: " + file);
+        }
+        return (header.getInt(5) & 0xffffffffL) + PREV_TAG_SIZE;
+    }
+
+    // not through the block cache, the scan would push the blocks being played out of it
+    private ChannelBuffer readDirect(final long start, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return ChannelBuffers.wrappedBuffer(buffer);
+    }
+
+    private FlvIndex buildIndex(final long dataStart) {
+        final FlvIndex flvIndex = new FlvIndex();
+        flvIndex.setDataStart(dataStart);
+        long tagStart = dataStart;
+        int time = 0;
+        while (tagStart + TAG_HEADER_SIZE <= size) {
+            final ChannelBuffer header;
+            try {
+                header = readDirect(tagStart, (int) Math.min(TAG_HEADER_SIZE + 4, size - tagStart)); // with the first data bytes
+            } catch (IOException e) {
+                throw new RuntimeException("unable to read flv file: " + file, e);
+            }
+            final int type = header.getUnsignedByte(0);
+            final int dataSize = header.getUnsignedMedium(1);
+            final long next = tagStart + TAG_HEADER_SIZE + dataSize + PREV_TAG_SIZE;
+            if (next > size || !isTagType(type)) {
+                break; // partly written or broken tail
+            }
+            time = header.getUnsignedMedium(4) | (header.getUnsignedByte(7) << 24);
+
+            final ChannelBuffer data = header.slice(TAG_HEADER_SIZE, Math.min(dataSize, 4));
+            if (type == MessageType.VIDEO.intValue() && dataSize > 0) {
+                if (dataSize > 3 && data.getInt(0) == 0x17000000) { // avc sequence header, as Video.isConfig()
+                    if (flvIndex.getVideoConfigPosition() < 0) {
+                        flvIndex.setVideoConfigPosition(tagStart);
+                    }
+                } else if ((data.getByte(0) & 0xf0) == 0x10) {
+                    flvIndex.addKeyFrame(time, tagStart);
+                }
+            } else if (type == MessageType.AUDIO.intValue() && dataSize > 0) {
+                if (dataSize > 1 && (data.getUnsignedByte(0) >> 4) == 10 && data.getByte(1) == 0) { // aac sequence header
+                    if (flvIndex.getAudioConfigPosition() < 0) {
+                        flvIndex.setAudioConfigPosition(tagStart);
+                    }
+                } else {
+                    flvIndex.addAudio(time, tagStart);
+                }
+            } else if (type == MessageType.METADATA_AMF0.intValue() && flvIndex.getMetadataPosition() < 0) {
+                flvIndex.setMetadataPosition(tagStart);
+            }
+            tagStart = next;
+        }
+        if (tagStart < size) {
+            logger.warn("[FlvReader] Ignoring {} bytes after the last complete tag of {}", size - tagStart, file.getAbsolutePath());
+        }
+        flvIndex.setDataEnd(tagStart);
+        flvIndex.setDuration(time);
+        return flvIndex;
+    }
+
+    private static boolean isTagType(final int type) {
+        return type == MessageType.AUDIO.intValue() || type == MessageType.VIDEO.intValue() || type == MessageType.METADATA_AMF0.intValue();
+    }
+
+    // recorded live streams carry "@setDataFrame", "onMetaData", {...}
+    private Metadata readMetadata() {
+        Metadata meta = null;
+        if (index.getMetadataPosition() >= 0) {
+            meta = (Metadata) readTag(index.getMetadataPosition());
+            if ("@setDataFrame".equals(meta.getName()) && meta.getData(0) instanceof String) {
+                final List<Object> data = new ArrayList<>();
+                for (int i = 1; meta.getData(i) != null; i++) {
+                    data.add(meta.getData(i));
+                }
+                meta = new MetadataAmf0((String) meta.getData(0), data.toArray());
+            }
+        }
+        if (meta == null) {
+            meta = new MetadataAmf0("onMetaData");
+        }
+        if (meta.getDuration() <= 0) {
+            meta.setDuration(index.getDuration() / 1000.0);
+        }
+        meta.getHeader().setTime(0);
+        return meta;
+    }
+
+    // the block holding the start stays referenced until the next read
+    private ChannelBuffer slice(final long start, final int length) {
+        if (length <= 0) {
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        final int blockSize = blockCache.getBlockSize();
+        final long firstBlock = start / blockSize;
+        final long lastBlock = (start + length - 1) / blockSize;
+        final ByteBuffer[] parts = new ByteBuffer[(int) (lastBlock - firstBlock + 1)];
+        long partStart = start;
+        for (int i = 0; i < parts.length; i++) {
+            final FlvBlockCache.Block block;
+            try {
+                block = blockCache.acquire(path, size, lastModified, channel, firstBlock + i);
+            } catch (IOException e) {
+                throw new RuntimeException("unable to read flv file: " + file, e);
+            }
+            final int offset = (int) (partStart - block.getStart());
+            final int partLength = (int) Math.min(block.getLength() - offset, start + length - partStart);
+            parts[i] = block.slice(offset, partLength);
+            partStart += partLength;
+            if (i == 0) {
+                blockCache.release(pinned);
+                pinned = block;
+            } else {
+                blockCache.release(block);
+            }
+        }
+        return parts.length == 1 ? ChannelBuffers.wrappedBuffer(parts[0]) : ChannelBuffers.wrappedBuffer(parts);
+    }
+
+    private RtmpMessage readTag(final long tagStart) {
+        final ChannelBuffer header = slice(tagStart, TAG_HEADER_SIZE);
+        final int dataSize = header.getUnsignedMedium(1);
+        final int time = header.getUnsignedMedium(4) | (header.getUnsignedByte(7) << 24);
+        final RtmpHeader rtmpHeader = new RtmpHeader(MessageType.valueToEnum(header.getUnsignedByte(0)), time, dataSize);
+        return MessageType.decode(rtmpHeader, slice(tagStart + TAG_HEADER_SIZE, dataSize));
+    }
+
+    private int tagSize(final long tagStart) {
+        return TAG_HEADER_SIZE + slice(tagStart + 1, 3).getUnsignedMedium(0) + PREV_TAG_SIZE;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public FlvIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    // metadata, then the codec configs
+    @Override
+    public RtmpMessage[] getStartMessages() {
+        if (startMessages == null) {
+            final List<RtmpMessage> list = new ArrayList<>();
+            list.add(metadata);
+            if (index.getVideoConfigPosition() >= 0) {
+                list.add(readTag(index.getVideoConfigPosition()));
+            }
+            if (index.getAudioConfigPosition() >= 0) {
+                list.add(readTag(index.getAudioConfigPosition()));
+            }
+            for (RtmpMessage message : list) {
+                message.getHeader().setTime(0);
+            }
+            startMessages = list.toArray(new RtmpMessage[0]);
+        }
+        return startMessages;
+    }
+
+    @Override
+    public void setAggregateDuration(int targetDuration) {
+        this.aggregateDuration = targetDuration;
+    }
+
+    @Override
+    public long getTimePosition() {
+        return timePosition;
+    }
+
+    // to the last seek point at or before the time
+    @Override
+    public long seek(long time) {
+        final int seekIndex = index.find((int) Math.min(time, Integer.MAX_VALUE));
+        if (seekIndex < 0) {
+            position = index.getDataStart();
+            timePosition = 0;
+        } else {
+            position = index.getPosition(seekIndex);
+            timePosition = index.getTime(seekIndex);
+        }
+        logger.debug("[FlvReader] Seek to {} ms, at {} ms (position {})", time, timePosition, position);
+        return timePosition;
+    }
+
+    @Override
+    public void close() {
+        blockCache.release(pinned);
+        pinned = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("[FlvReader] Fail to close {}", file.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position + TAG_HEADER_SIZE <= index.getDataEnd();
+    }
+
+    /**
+     * the next tag, or with an aggregate duration the audio / video tags spanning it as one aggregate message
+     * whose payload is the file range of the tags itself (flv tags with their previous tag sizes)
+     */
+    @Override
+    public RtmpMessage next() {
+        if (aggregateDuration > 0) {
+            final RtmpMessage aggregate = nextAggregate();
+            if (aggregate != null) {
+                return aggregate;
+            }
+        }
+
+        final RtmpMessage message = readTag(position);
+        position += TAG_HEADER_SIZE + message.getHeader().getSize() + PREV_TAG_SIZE;
+        timePosition = message.getHeader().getTime();
+        return message;
+    }
+
+    // null when less than two tags qualify
+    private RtmpMessage nextAggregate() {
+        final long start = position;
+        long end = start;
+        int count = 0;
+        int firstTime = 0;
+        int lastTime = 0;
+        while (end + TAG_HEADER_SIZE <= index.getDataEnd()) {
+            final ChannelBuffer header = slice(end, TAG_HEADER_SIZE);
+            final int type = header.getUnsignedByte(0);
+            if (type != MessageType.AUDIO.intValue() && type != MessageType.VIDEO.intValue()) {
+                break;
+            }
+            final int time = header.getUnsignedMedium(4) | (header.getUnsignedByte(7) << 24);
+            final int tagSize = tagSize(end);
+            if (count > 0 && (time - firstTime >= aggregateDuration || end + tagSize - start > MAX_AGGREGATE_BYTES)) {
+                break;
+            }
+            if (count == 0) {
+                firstTime = time;
+            }
+            lastTime = time;
+            end += tagSize;
+            count++;
+        }
+
+        if (count < 2) {
+            return null;
+        }
+        position = end;
+        timePosition = lastTime;
+        return new Aggregate(firstTime, slice(start, (int) (end - start)));
+    }
+
+    @Override
+    public String toString() {
+        return "FlvReader{" +
+                "file=" + file.getAbsolutePath() +
+                ", position=" + position +
+                ", timePosition=" + timePosition +
+                ", aggregateDuration=" + aggregateDuration +
+                ", index=" + index +
+                '}';
+    }
+
+}
@@ -0,0 +1,395 @@
+package rtmp.flazr.io.flv;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpHeader;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.RtmpWriter;
+import rtmp.flazr.rtmp.message.MessageType;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records audio, video and (amf0) metadata messages into an flv file off the caller's thread.
+ * {@link #write} only queues the message, a small pool shared by all recordings writes the queued tags with
+ * gathering {@link FileChannel} writes, one batch per task so that busy recordings take turns, and forces the
+ * file to disk every {@code RECORD_SYNC_INTERVAL} millis. When the bounded queue is full the tag is dropped,
+ * and video up to the next keyframe with it, so the file never holds frames missing their references.
+ * Once closed, the last task writes everything still queued before the file is finished.
+ * Timestamps start at 0, or with append a frame after the last tag of the existing file.
+ */
+public class FlvWriter implements RtmpWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvWriter.class);
+
+    private static final int TAG_HEADER_SIZE = 11;
+    private static final int PREV_TAG_SIZE = 4;
+    private static final int MAX_BATCH = 256; // tags per gathering write (3 buffers each, under IOV_MAX)
+    private static final int APPEND_TIME_GAP = 40; // millis between the last tag of the file and the first appended, about a frame
+    private static final byte[] FLV_HEADER = {
+            'F', 'L', 'V', 0x01, 0x05, // version 1, audio + video
+            0x00, 0x00, 0x00, 0x09, // header size
+            0x00, 0x00, 0x00, 0x00 // previous tag size 0
+    };
+
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(RtmpConfig.RECORD_THREADS,
+            new BasicThreadFactory
+                    .Builder()
+                    .namingPattern("RtmpRecorder-%d")
+                    .daemon(true)
+                    .build()
+    );
+
+    static {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private static final Set<FlvWriter> writers = ConcurrentHashMap.newKeySet(); // not closed yet
+
+    private static final class Tag {
+        private final int type;
+        private final int time;
+        private final ByteBuffer data;
+
+        private Tag(int type, int time, ByteBuffer data) {
+            this.type = type;
+            this.time = time;
+            this.data = data;
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<Tag> queue;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false); // a drain task owns the file channel
+    private final ScheduledFuture<?> syncFuture;
+    private volatile boolean closed;
+    private volatile boolean dirty;
+
+    // caller thread only
+    private final int timeBase;
+    private int firstTime;
+    private int lastTime;
+    private boolean started;
+    private boolean videoDropped; // until the next keyframe
+
+    private volatile long writtenTags;
+    private volatile long writtenBytes;
+    private volatile long droppedTags;
+
+    public FlvWriter(final File file, final boolean append) {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(RtmpConfig.RECORD_QUEUE_SIZE);
+        try {
+            final File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("unable to create directory: " + dir);
+            }
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (append && channel.size() > FLV_HEADER.length) {
+                timeBase = readLastTime() + APPEND_TIME_GAP;
+            } else {
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap(FLV_HEADER), 0);
+                channel.position(FLV_HEADER.length);
+                timeBase = 0;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("unable to open flv file for recording: " + file, e);
+        }
+        lastTime = timeBase;
+
+        final long interval = RtmpConfig.RECORD_SYNC_INTERVAL;
+        syncFuture = executor.scheduleWithFixedDelay(this::sync, interval, interval, TimeUnit.MILLISECONDS);
+        writers.add(this);
+        logger.info("[FlvWriter] Recording to {} (append={}, start time={})", file.getAbsolutePath(), append, timeBase);
+    }
+
+    // time of the last complete tag, found through the trailing previous tag size (or a scan when that is broken),
+    // a partly written last tag is cut off
+    private int readLastTime() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(FLV_HEADER.length);
+        channel.read(header, 0);
+        header.flip();
+        if (header.get(0) != 'F' || header.get(1) != 'L' || header.get(2) != 'V') {
+            throw new IOException("not an flv file: " + file);
+        }
+
+        final long size = channel.size();
+        final ByteBuffer buffer = ByteBuffer.allocate(TAG_HEADER_SIZE);
+        buffer.limit(PREV_TAG_SIZE);
+        channel.read(buffer, size - PREV_TAG_SIZE);
+        final long tagStart = size - PREV_TAG_SIZE - (buffer.getInt(0) & 0xffffffffL);
+        if (tagStart >= FLV_HEADER.length) {
+            final int[] tag = readTagHeader(buffer, tagStart);
+            if (tag != null && tagStart + TAG_HEADER_SIZE + tag[0] + PREV_TAG_SIZE == size) {
+                channel.position(size);
+                return tag[1];
+            }
+        }
+
+        logger.warn("[FlvWriter] Last tag of {} is broken, scanning the file", file.getAbsolutePath());
+        long position = FLV_HEADER.length;
+        int time = 0;
+        while (true) {
+            final int[] tag = readTagHeader(buffer, position);
+            if (tag == null || position + TAG_HEADER_SIZE + tag[0] + PREV_TAG_SIZE > size) {
+                break;
+            }
+            time = tag[1];
+            position += TAG_HEADER_SIZE + tag[0] + PREV_TAG_SIZE;
+        }
+        channel.truncate(position);
+        channel.position(position);
+        return time;
+    }
+
+    // {data size, time} or null
+    private int[] readTagHeader(final ByteBuffer buffer, final long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        final int type = buffer.get(0);
+        if (type != MessageType.AUDIO.intValue() && type != MessageType.VIDEO.intValue() && type != MessageType.METADATA_AMF0.intValue()) {
+            return null;
+        }
+        final int dataSize = (buffer.getInt(0) & 0xffffff);
+        final int time = (buffer.getInt(3) & 0xffffff) | ((buffer.get(7) & 0xff) << 24);
+        return new int[] {dataSize, time};
+    }
+
+    @Override
+    public void write(final RtmpMessage message) {
+        if (closed) {
+            return;
+        }
+
+        final RtmpHeader header = message.getHeader();
+        final int time;
+        if (header.isAudio() || header.isVideo()) {
+            if (!started) {
+                firstTime = header.getTime();
+                started = true;
+            }
+            time = timeBase + Math.max(0, header.getTime() - firstTime);
+            lastTime = time;
+        } else if (header.getMessageType() == MessageType.METADATA_AMF0) {
+            time = lastTime; // publishers may stamp metadata 0 whatever their media time is
+        } else {
+            return;
+        }
+
+        // a dropped video frame takes the frames referencing it along, up to the next keyframe
+        final boolean video = header.isVideo();
+        if (video && videoDropped) {
+            if (!((Video) message).isKeyFrame()) {
+                droppedTags++;
+                return;
+            }
+            videoDropped = false;
+        }
+
+        final ChannelBuffer data = message.encode();
+        final Tag tag = new Tag(header.getMessageType().intValue(), time, data.toByteBuffer(data.readerIndex(), data.readableBytes()));
+        if (!queue.offer(tag)) {
+            if (droppedTags++ == 0) {
+                logger.warn("[FlvWriter] Queue is full, dropping tags of {}", file.getAbsolutePath());
+            }
+            if (video) {
+                videoDropped = true;
+            }
+            return;
+        }
+
+        if (scheduled.compareAndSet(false, true)) {
+            submit();
+        }
+    }
+
+    // on the pool, or right here once the pool is shut down (the server is stopping)
+    private void submit() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            drain();
+        }
+    }
+
+    // one batch per run, resubmitted while tags are queued; once closed the run writes all that is queued
+    // and finishes the file
+    private void drain() {
+        try {
+            final List<Tag> batch = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                batch.clear();
+                queue.drainTo(batch, MAX_BATCH);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                writeBatch(batch);
+                if (!closed) {
+                    submit();
+                    return;
+                }
+            }
+
+            if (closed) {
+                finish();
+                return; // keeps the channel owned, nothing runs after the finish
+            }
+
+            scheduled.set(false);
+            // a tag (or close) that came in before the reset found the flag on and did not submit
+            if ((!queue.isEmpty() || closed) && scheduled.compareAndSet(false, true)) {
+                submit();
+            }
+        } catch (Exception e) {
+            logger.warn("[FlvWriter] Fail to write {}, stopping the recording", file.getAbsolutePath(), e);
+            closed = true;
+            queue.clear();
+            finish();
+        }
+    }
+
+    private void writeBatch(final List<Tag> batch) throws IOException {
+        final ByteBuffer[] buffers = new ByteBuffer[batch.size() * 3];
+        long remaining = 0;
+        int index = 0;
+        for (Tag tag : batch) {
+            final int size = tag.data.remaining();
+            final ByteBuffer tagHeader = ByteBuffer.allocate(TAG_HEADER_SIZE);
+            tagHeader.put((byte) tag.type);
+            putMedium(tagHeader, size);
+            putMedium(tagHeader, tag.time); // lower 24 bits
+            tagHeader.put((byte) (tag.time >>> 24)); // extended
+            putMedium(tagHeader, 0); // stream id
+            tagHeader.flip();
+
+            final ByteBuffer prevTagSize = ByteBuffer.allocate(PREV_TAG_SIZE);
+            prevTagSize.putInt(TAG_HEADER_SIZE + size);
+            prevTagSize.flip();
+
+            buffers[index++] = tagHeader;
+            buffers[index++] = tag.data;
+            buffers[index++] = prevTagSize;
+            remaining += TAG_HEADER_SIZE + size + PREV_TAG_SIZE;
+        }
+
+        final long total = remaining;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        writtenTags += batch.size();
+        writtenBytes += total;
+        dirty = true;
+    }
+
+    private static void putMedium(final ByteBuffer buffer, final int value) {
+        buffer.put((byte) (value >>> 16));
+        buffer.put((byte) (value >>> 8));
+        buffer.put((byte) value);
+    }
+
+    // holds the monitor against the finish, the channel is not closed under a force
+    private synchronized void sync() {
+        if (!dirty || closed || !channel.isOpen()) {
+            return;
+        }
+        dirty = false;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            logger.warn("[FlvWriter] Fail to sync {}", file.getAbsolutePath(), e);
+        }
+    }
+
+    private void finish() {
+        syncFuture.cancel(false);
+        writers.remove(this);
+        synchronized (this) {
+            try {
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("[FlvWriter] Fail to close {}", file.getAbsolutePath(), e);
+            }
+        }
+        logger.info("[FlvWriter] Recording finished. ({})", this);
+    }
+
+    // queued tags are still written, the file is closed by the last drain
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (scheduled.compareAndSet(false, true)) {
+            submit();
+        }
+    }
+
+    // closes the recordings still open, and lets them write their last tags
+    public static void shutdown() {
+        for (FlvWriter writer : writers) {
+            writer.close();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("[FlvWriter] Recordings did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getWrittenTags() {
+        return writtenTags;
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public long getDroppedTags() {
+        return droppedTags;
+    }
+
+    @Override
+    public String toString() {
+        return "FlvWriter{" +
+                "file=" + file.getAbsolutePath() +
+                ", writtenTags=" + writtenTags +
+                ", writtenBytes=" + writtenBytes +
+                ", droppedTags=" + droppedTags +
+                ", queued=" + queue.size() +
+                '}';
+    }
+
+}
@@ -0,0 +1,131 @@
+package rtmp.flazr.rtmp;
+
+import java.util.Arrays;
+
+/**
+ * Per connection state indexed by chunk stream id (0 ~ {@link RtmpHeader#MAX_CHANNEL_ID}).
+ * Ids below 64 (one byte basic header, used by nearly every client) are kept in a plain array,
+ * higher ids go to a small open addressed map which is only allocated when such an id shows up.
+ */
+public class ChunkStreamTable<T> {
+
+    private static final int DIRECT_SIZE = 64;
+    private static final int INITIAL_MAP_CAPACITY = 8; // power of two
+
+    private final Object[] direct = new Object[DIRECT_SIZE];
+
+    // linear probing, key 0 marks a free slot (mapped ids are always >= DIRECT_SIZE)
+    private int[] keys;
+    private Object[] values;
+    private int mapSize;
+
+    @SuppressWarnings("unchecked")
+    public T get(final int channelId) {
+        if (channelId < DIRECT_SIZE) {
+            return (T) direct[channelId];
+        }
+        if (keys == null) {
+            return null;
+        }
+        final int mask = keys.length - 1;
+        for (int i = slot(channelId, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == channelId) {
+                return (T) values[i];
+            }
+        }
+        return null;
+    }
+
+    public void put(final int channelId, final T value) {
+        if (value == null) {
+            remove(channelId);
+            return;
+        }
+        if (channelId < DIRECT_SIZE) {
+            direct[channelId] = value;
+            return;
+        }
+        if (keys == null) {
+            keys = new int[INITIAL_MAP_CAPACITY];
+            values = new Object[INITIAL_MAP_CAPACITY];
+        } else if ((mapSize + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        final int mask = keys.length - 1;
+        int i = slot(channelId, mask);
+        for (; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == channelId) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = channelId;
+        values[i] = value;
+        mapSize++;
+    }
+
+    public void remove(final int channelId) {
+        if (channelId < DIRECT_SIZE) {
+            direct[channelId] = null;
+            return;
+        }
+        if (keys == null) {
+            return;
+        }
+        final int mask = keys.length - 1;
+        int i = slot(channelId, mask);
+        for (; keys[i] != channelId; i = (i + 1) & mask) {
+            if (keys[i] == 0) {
+                return;
+            }
+        }
+        keys[i] = 0;
+        values[i] = null;
+        mapSize--;
+
+        // backward shift the rest of the probe run, so lookups never need tombstones
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            final int home = slot(keys[j], mask);
+            final boolean reachable = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                keys[j] = 0;
+                values[j] = null;
+                i = j;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(direct, null);
+        keys = null;
+        values = null;
+        mapSize = 0;
+    }
+
+    private void resize(final int capacity) {
+        final int[] oldKeys = keys;
+        final Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == 0) {
+                continue;
+            }
+            int i = slot(oldKeys[j], mask);
+            while (keys[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private static int slot(final int channelId, final int mask) {
+        final int h = channelId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+}
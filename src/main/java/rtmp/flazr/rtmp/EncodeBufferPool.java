@@ -0,0 +1,117 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct output buffers of the encoders, reused once the write that carried them is done.
+ * Two sizes (small for audio, commands and control, large for video frames), each class holding at most half of
+ * {@code ENCODER_POOL_SIZE} MiB. A message that fits no class, or finds its class used up, gets a buffer
+ * of its own (counted as a miss).
+ * Only buffers written once and left alone afterwards may come from here: not the shared encoded copies,
+ * which a message and the gop cache keep.
+ */
+public class EncodeBufferPool {
+
+    public static final int SMALL_BUFFER_SIZE = 4 * 1024;
+    public static final int LARGE_BUFFER_SIZE = 64 * 1024;
+
+    private static EncodeBufferPool encodeBufferPool = null;
+
+    private static final class SizeClass {
+        private final int bufferSize;
+        private final int maxBuffers;
+        private final ConcurrentLinkedQueue<ChannelBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger created = new AtomicInteger();
+
+        private SizeClass(int bufferSize, long maxBytes) {
+            this.bufferSize = bufferSize;
+            this.maxBuffers = (int) Math.min(Integer.MAX_VALUE, maxBytes / bufferSize);
+        }
+
+        private ChannelBuffer acquire() {
+            final ChannelBuffer buffer = free.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+            if (created.incrementAndGet() > maxBuffers) {
+                created.decrementAndGet();
+                return null;
+            }
+            return ChannelBuffers.directBuffer(ByteOrder.BIG_ENDIAN, bufferSize);
+        }
+    }
+
+    private final SizeClass small;
+    private final SizeClass large;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    EncodeBufferPool(long maxBytes) {
+        small = new SizeClass(SMALL_BUFFER_SIZE, maxBytes / 2);
+        large = new SizeClass(LARGE_BUFFER_SIZE, maxBytes / 2);
+    }
+
+    public static synchronized EncodeBufferPool getInstance() {
+        if (encodeBufferPool == null) {
+            encodeBufferPool = new EncodeBufferPool((long) RtmpConfig.ENCODER_POOL_SIZE << 20);
+        }
+
+        return encodeBufferPool;
+    }
+
+    public boolean isEnabled() {
+        return small.maxBuffers > 0 || large.maxBuffers > 0;
+    }
+
+    /**
+     * an empty buffer of at least the capacity, or null when none is free (then allocate one); give it back with
+     * {@link #release(ChannelBuffer)} once nothing reads it any more
+     */
+    public ChannelBuffer acquire(final int capacity) {
+        final SizeClass sizeClass = capacity <= SMALL_BUFFER_SIZE ? small : capacity <= LARGE_BUFFER_SIZE ? large : null;
+        final ChannelBuffer buffer = sizeClass == null ? null : sizeClass.acquire();
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return buffer;
+    }
+
+    public void release(final ChannelBuffer buffer) {
+        final SizeClass sizeClass = buffer.capacity() == SMALL_BUFFER_SIZE ? small : large;
+        buffer.clear();
+        sizeClass.free.offer(buffer);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // direct bytes held by the pool, free or in use
+    public long getAllocatedBytes() {
+        return (long) small.created.get() * small.bufferSize + (long) large.created.get() * large.bufferSize;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodeBufferPool{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", allocatedBytes=" + getAllocatedBytes() +
+                ", freeSmall=" + small.free.size() +
+                ", freeLarge=" + large.free.size() +
+                '}';
+    }
+
+}
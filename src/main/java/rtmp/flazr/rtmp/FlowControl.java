@@ -0,0 +1,146 @@
+package rtmp.flazr.rtmp;
+
+import rtmp.flazr.rtmp.message.SetPeerBw;
+
+/**
+ * Flow control state of one connection, shared by the handshaker, decoder and handler of its pipeline.
+ * Counts the bytes actually read from and written to the socket (handshake included), tells when the peer
+ * is due an acknowledgement for its window ack size, and tracks our output the peer has not acknowledged
+ * yet against the bandwidth it allowed us with set peer bandwidth.
+ * Counters are updated from the connection's I/O thread only, they are volatile for readers elsewhere.
+ */
+public class FlowControl {
+
+    private volatile long bytesRead;
+    private volatile long bytesReadAcked; // last acknowledgement we sent
+    private volatile int ackWindow; // the peer's window ack size
+
+    private volatile long bytesWritten;
+    private volatile long bytesAcked; // our output acknowledged by the peer
+    private volatile boolean peerAcknowledges;
+    private volatile int windowAckSize; // ours, last one sent to the peer
+    private volatile int peerBandwidth; // limit of unacknowledged output, 0 = none
+    private volatile SetPeerBw.LimitType peerLimitType;
+
+    public FlowControl() {
+        this(RtmpConfig.WINDOW_ACK_SIZE);
+    }
+
+    public FlowControl(int ackWindow) {
+        this.ackWindow = ackWindow;
+    }
+
+    public void addBytesRead(int bytes) {
+        bytesRead += bytes;
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten += bytes;
+    }
+
+    /**
+     * @return the sequence number to acknowledge once a window of the peer's bytes was read since the last one, otherwise -1
+     */
+    public long takeAck() {
+        final long read = bytesRead;
+        if (ackWindow <= 0 || read - bytesReadAcked < ackWindow) {
+            return -1;
+        }
+        bytesReadAcked = read;
+        return read;
+    }
+
+    public void setAckWindow(int ackWindow) {
+        this.ackWindow = ackWindow;
+    }
+
+    public void setWindowAckSize(int windowAckSize) {
+        this.windowAckSize = windowAckSize;
+    }
+
+    // the peer's sequence number is its 32 bit received byte count, mapped back onto our 64 bit count
+    public void onAck(int sequence) {
+        final long written = bytesWritten;
+        final long behind = ((int) written - sequence) & 0xffffffffL;
+        final long acked = written - behind;
+        if (acked > bytesAcked && acked <= written) {
+            bytesAcked = acked;
+        }
+        peerAcknowledges = true;
+    }
+
+    /**
+     * hard sets the limit, soft only lowers it, dynamic counts as hard after a hard one and is ignored otherwise
+     * @return true when the limit was taken and the peer should get a window ack size of this value
+     * (it differs from the last one sent), false when it was ignored (nothing changed)
+     */
+    public boolean onPeerBandwidth(int value, SetPeerBw.LimitType limitType) {
+        switch (limitType) {
+            case HARD:
+                break;
+            case SOFT:
+                if (peerBandwidth != 0 && value >= peerBandwidth) {
+                    return false;
+                }
+                break;
+            case DYNAMIC:
+                if (peerLimitType != SetPeerBw.LimitType.HARD) {
+                    return false;
+                }
+                limitType = SetPeerBw.LimitType.HARD;
+                break;
+            default:
+                return false;
+        }
+        peerBandwidth = value;
+        peerLimitType = limitType;
+        return value != windowAckSize;
+    }
+
+    public long getInFlight() {
+        return bytesWritten - bytesAcked;
+    }
+
+    /**
+     * true when the peer acknowledges our output and the unacknowledged part reached its bandwidth.
+     * the limit is at least two of our windows, the peer only acknowledges a full window
+     */
+    public boolean isWindowFull() {
+        if (!peerAcknowledges || peerBandwidth <= 0) {
+            return false;
+        }
+        return getInFlight() >= Math.max(peerBandwidth, 2L * windowAckSize);
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getBytesAcked() {
+        return bytesAcked;
+    }
+
+    public int getPeerBandwidth() {
+        return peerBandwidth;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowControl{" +
+                "bytesRead=" + bytesRead +
+                ", bytesReadAcked=" + bytesReadAcked +
+                ", ackWindow=" + ackWindow +
+                ", bytesWritten=" + bytesWritten +
+                ", bytesAcked=" + bytesAcked +
+                ", inFlight=" + getInFlight() +
+                ", windowAckSize=" + windowAckSize +
+                ", peerBandwidth=" + peerBandwidth +
+                ", peerLimitType=" + peerLimitType +
+                '}';
+    }
+
+}
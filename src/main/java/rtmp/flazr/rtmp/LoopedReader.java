@@ -22,34 +22,91 @@ package rtmp.flazr.rtmp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rtmp.flazr.rtmp.message.Metadata;
+import rtmp.flazr.rtmp.message.Video;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
+/**
+ * Plays a reader over and over on one timeline: {@code loopCount} times, endlessly for {@link #LOOP_FOREVER},
+ * once when not positive (as it always did).
+ * Each loop starts where the previous one ended plus one frame, so times keep growing: they are kept as
+ * 64 bit millis ({@link #getTimePosition}) and message headers carry the lower 32 bits, which is how rtmp
+ * timestamps wrap on the wire.
+ * Given a reader factory, the next loop is opened on the executor while the current one plays and its first
+ * gop read ahead, so the loop boundary costs no file access on the caller's thread; otherwise the one reader
+ * is rewound. The loop boundary waits for the prefetch at most {@link #PREFETCH_WAIT_MS} (the caller may be a
+ * pacing thread shared with other sessions): when it is late the reader is rewound for this loop, and the prefetch
+ * is kept for the next boundary.
+ */
 public class LoopedReader implements RtmpReader {
 
     private static final Logger logger = LoggerFactory.getLogger(LoopedReader.class);
 
+    private static final int DEFAULT_FRAME_GAP = 40; // millis, when no frame rate could be seen
+    private static final int PREFETCH_MAX_MESSAGES = 4096;
+    static final long PREFETCH_WAIT_MS = 100;
+
+    public static final int LOOP_FOREVER = Integer.MAX_VALUE;
+
+    private static final class Prefetch {
+        private final RtmpReader reader;
+        private final List<RtmpMessage> messages;
+
+        private Prefetch(RtmpReader reader, List<RtmpMessage> messages) {
+            this.reader = reader;
+            this.messages = messages;
+        }
+    }
+
     private final int loopCount;
-    private final RtmpReader reader;
-    private long timePosition;
-    private double duration = -1;
-    private int loopsCompleted = 0;
+    private final Supplier<RtmpReader> readerFactory; // null = rewind the reader
+    private final Executor prefetchExecutor;
+    private RtmpReader reader;
     private final Metadata metadata;
     private RtmpMessage[] startMessages;
+    private CompletableFuture<Prefetch> prefetch; // the next loop
+    private final ArrayDeque<RtmpMessage> prefetched = new ArrayDeque<>(); // played before the reader
+
+    private long loopStart; // timeline time of the current loop's time 0
+    private long loopLength = -1; // of the first loop, known once it ended
+    private int lastTime = -1; // in the current loop
+    private int lastVideoTime = -1;
+    private int frameGap;
+    private volatile int aggregateDuration;
+    private long timePosition;
+    private int loopsCompleted = 0;
 
     public LoopedReader(final RtmpReader reader, final int loopCount) {
+        this(reader, null, null, loopCount);
+    }
+
+    public LoopedReader(final Supplier<RtmpReader> readerFactory, final Executor prefetchExecutor, final int loopCount) {
+        this(readerFactory.get(), readerFactory, prefetchExecutor, loopCount);
+    }
+
+    private LoopedReader(final RtmpReader reader, final Supplier<RtmpReader> readerFactory, final Executor prefetchExecutor, final int loopCount) {
         this.reader = reader;
+        this.readerFactory = readerFactory;
+        this.prefetchExecutor = prefetchExecutor;
         this.loopCount = loopCount;
         this.metadata = reader.getMetadata();
         double originalDuration = metadata.getDuration();
-        if(originalDuration > 0) {
-            double durationSeconds = originalDuration * loopCount;
+        if(originalDuration > 0 && loopCount != LOOP_FOREVER) {
+            double durationSeconds = originalDuration * Math.max(loopCount, 1);
             metadata.setDuration(durationSeconds);
         } else {
             metadata.setDuration(-1);
         }
-        logger.info("looped reader init: count {}", loopCount);
+        startPrefetch();
+        logger.info("looped reader init: count {}, prefetch {}", loopCount, readerFactory != null);
     }
 
     @Override
@@ -74,6 +131,7 @@ public class LoopedReader implements RtmpReader {
 
     @Override
     public void setAggregateDuration(int targetDuration) {
+        aggregateDuration = targetDuration;
         reader.setAggregateDuration(targetDuration);
     }
 
@@ -82,46 +140,134 @@ public class LoopedReader implements RtmpReader {
         return timePosition;
     }
 
+    // a time of the timeline, into the loop it falls in once the loop length is known
     @Override
     public long seek(long timePosition) {
-        if(duration < 0 || timePosition < duration) {
-            return reader.seek(timePosition);
+        prefetched.clear();
+        lastTime = -1;
+        lastVideoTime = -1;
+        if(loopLength <= 0 || timePosition < loopLength) {
+            loopStart = 0;
+            loopsCompleted = 0;
+            this.timePosition = reader.seek(timePosition);
+            return this.timePosition;
         }
-        loopsCompleted = (int) Math.floor(timePosition / duration);
-        return reader.seek((long) (timePosition % duration));
+        loopsCompleted = (int) (timePosition / loopLength);
+        loopStart = loopsCompleted * loopLength;
+        this.timePosition = loopStart + reader.seek(timePosition % loopLength);
+        return this.timePosition;
     }
 
     @Override
     public void close() {
         reader.close();
+        final CompletableFuture<Prefetch> pending = prefetch;
+        prefetch = null;
+        if(pending != null) {
+            pending.thenAccept(next -> next.reader.close());
+        }
     }
 
     @Override
     public boolean hasNext() {
-        if(reader.hasNext()) {
+        if(!prefetched.isEmpty() || reader.hasNext()) {
             return true;
         }
-        if(loopsCompleted == 0 && duration == -1) {
-            duration = timePosition;
+        if(isLastLoop()) {
+            return false;
         }
+
+        final long length = lastTime >= 0 ? lastTime + (frameGap > 0 ? frameGap : DEFAULT_FRAME_GAP) : loopLength;
+        if(length <= 0) {
+            return false; // nothing was ever played, the reader is empty
+        }
+        if(loopLength < 0) {
+            loopLength = length;
+        }
+        loopStart += length;
         loopsCompleted++;
-        if(loopsCompleted < loopCount) {
-            reader.seek(0);
-            logger.info("re-wound media after loop #{}", loopsCompleted);
-            return true;
+        lastTime = -1;
+        lastVideoTime = -1;
+
+        if(prefetch != null) {
+            final Prefetch next = awaitPrefetch();
+            if(next != null) {
+                reader.close();
+                reader = next.reader;
+                prefetched.addAll(next.messages);
+                startPrefetch();
+                logger.info("switched to the prefetched loop #{} ({} messages ahead)", loopsCompleted, prefetched.size());
+                return !prefetched.isEmpty() || reader.hasNext();
+            }
+        }
+        reader.seek(0);
+        logger.info("re-wound media after loop #{}", loopsCompleted);
+        return reader.hasNext();
+    }
+
+    // the prefetched loop, or null when it failed (then dropped) or is not ready in time (then kept)
+    private Prefetch awaitPrefetch() {
+        try {
+            final Prefetch next = prefetch.get(PREFETCH_WAIT_MS, TimeUnit.MILLISECONDS);
+            prefetch = null;
+            return next;
+        } catch (TimeoutException e) {
+            logger.warn("the prefetch of loop #{} is late, rewinding the current reader", loopsCompleted);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            prefetch = null;
+            return null;
         }
-        return false;
+    }
+
+    private boolean isLastLoop() {
+        return loopCount != LOOP_FOREVER && loopsCompleted + 1 >= loopCount;
+    }
+
+    // opens the reader of the next loop and reads up to its second keyframe, null when that fails
+    private void startPrefetch() {
+        if(readerFactory == null || isLastLoop()) {
+            return;
+        }
+        prefetch = CompletableFuture.supplyAsync(() -> {
+            try {
+                final RtmpReader next = readerFactory.get();
+                next.setAggregateDuration(aggregateDuration);
+                next.seek(0);
+                final List<RtmpMessage> messages = new ArrayList<>();
+                while(messages.size() < PREFETCH_MAX_MESSAGES && next.hasNext()) {
+                    final RtmpMessage message = next.next();
+                    messages.add(message);
+                    if(messages.size() > 1 && message instanceof Video
+                            && ((Video) message).isKeyFrame() && !((Video) message).isConfig()) {
+                        break;
+                    }
+                }
+                return new Prefetch(next, messages);
+            } catch (Exception e) {
+                logger.warn("fail to prefetch the next loop", e);
+                return null;
+            }
+        }, prefetchExecutor);
     }
 
     @Override
     public RtmpMessage next() {
-        final RtmpMessage message = reader.next();
-        if(loopsCompleted == 0) {
-            timePosition = message.getHeader().getTime();
-            return message;
+        final RtmpMessage message = prefetched.isEmpty() ? reader.next() : prefetched.poll();
+        final RtmpHeader header = message.getHeader();
+        final int time = header.getTime();
+        if(header.isVideo()) {
+            if(lastVideoTime >= 0 && time > lastVideoTime) {
+                frameGap = time - lastVideoTime;
+            }
+            lastVideoTime = time;
         }
-        timePosition = (long) duration * loopsCompleted + message.getHeader().getTime();
-        message.getHeader().setTime((int) timePosition); // find and cleanup all these (int) casts
+        lastTime = Math.max(lastTime, time);
+        timePosition = loopStart + time;
+        header.setTimestamp(timePosition); // the wire carries the lower 32 bits, wrapping
         return message;
     }
 
@@ -0,0 +1,190 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpDecoder.DecoderState;
+import rtmp.flazr.rtmp.message.BytesRead;
+import rtmp.flazr.rtmp.message.ChunkSize;
+import rtmp.flazr.rtmp.message.MessageType;
+
+/**
+ * Incremental chunk parser, produces the same messages as {@link RtmpDecoder}.
+ * The header is parsed only once all of its bytes (basic, message and extended timestamp) are readable,
+ * and a partial chunk payload is consumed as it arrives, so nothing is ever parsed twice.
+ * What is left of a read is at most a partial header: it is kept in a small buffer of the decoder
+ * (not in a cumulation buffer allocated again after each read, as by FrameDecoder) and completed from the next read.
+ */
+public class RtmpChunkDecoder extends SimpleChannelUpstreamHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(RtmpChunkDecoder.class);
+
+    // message header length by header type: LARGE, MEDIUM, SMALL, TINY
+    private static final int[] MESSAGE_HEADER_LENGTHS = {11, 7, 3, 0};
+
+    private DecoderState state = DecoderState.GET_HEADER;
+    private RtmpHeader header;
+    private int channelId;
+    private ChannelBuffer payload;
+    private int chunkRemaining;
+    private int chunkSize = 128;
+
+    private final ChannelBuffer partialHeader = ChannelBuffers.buffer(RtmpHeader.MAX_ENCODED_SIZE);
+    private final ChunkStreamTable<RtmpHeader> incompleteHeaders = new ChunkStreamTable<>();
+    private final ChunkStreamTable<ChannelBuffer> incompletePayloads = new ChunkStreamTable<>();
+    private final ChunkStreamTable<RtmpHeader> completedHeaders = new ChunkStreamTable<>();
+    private final FlowControl flowControl;
+
+    public RtmpChunkDecoder() {
+        this(new FlowControl());
+    }
+
+    public RtmpChunkDecoder(final FlowControl flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    // counted as read from the socket, before any decoding, and acknowledged as they arrive:
+    // a message spanning windows does not hold its acknowledgement back until it completes
+    @Override
+    public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) {
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+
+        final ChannelBuffer in = (ChannelBuffer) e.getMessage();
+        flowControl.addBytesRead(in.readableBytes());
+        final long ack = flowControl.takeAck();
+        if (ack >= 0) {
+            Channels.write(ctx.getChannel(), new BytesRead(ack));
+        }
+
+        // a header split across reads: completed from this one, up to the longest header
+        while (partialHeader.readable() && in.readable()) {
+            partialHeader.discardReadBytes();
+            in.readBytes(partialHeader, Math.min(partialHeader.writableBytes(), in.readableBytes()));
+            decodeAll(ctx, partialHeader, e);
+        }
+
+        decodeAll(ctx, in, e);
+        if (in.readable()) {
+            partialHeader.clear();
+            in.readBytes(partialHeader, in.readableBytes());
+        }
+    }
+
+    private void decodeAll(final ChannelHandlerContext ctx, final ChannelBuffer in, final MessageEvent e) {
+        while (in.readable()) {
+            final int readerIndex = in.readerIndex();
+            final RtmpMessage message = decode(in);
+            if (message != null) {
+                Channels.fireMessageReceived(ctx, message, e.getRemoteAddress());
+            } else if (in.readerIndex() == readerIndex) {
+                return; // a partial header
+            }
+        }
+    }
+
+    private RtmpMessage decode(final ChannelBuffer in) {
+        if(state == DecoderState.GET_HEADER) {
+            if(!isHeaderReadable(in)) {
+                return null;
+            }
+            header = new RtmpHeader(in, incompleteHeaders);
+            channelId = header.getChannelId();
+            payload = incompletePayloads.get(channelId);
+            if(payload == null) { // new chunk stream
+                incompleteHeaders.put(channelId, header);
+                payload = ChannelBuffers.buffer(header.getSize());
+                incompletePayloads.put(channelId, payload);
+            }
+            chunkRemaining = Math.min(payload.writableBytes(), chunkSize);
+            state = DecoderState.GET_PAYLOAD;
+        }
+
+        final int length = Math.min(chunkRemaining, in.readableBytes());
+        in.readBytes(payload, length);
+        chunkRemaining -= length;
+        if(chunkRemaining > 0) { // rest of the chunk not arrived yet
+            return null;
+        }
+        state = DecoderState.GET_HEADER;
+        if(payload.writable()) { // more chunks remain
+            return null;
+        }
+
+        incompletePayloads.remove(channelId);
+        final RtmpHeader prevHeader = completedHeaders.get(channelId);
+        if (!header.isLarge()) {
+            header.setTimestamp(prevHeader.getTimestamp() + (header.getDeltaTime() & RtmpHeader.TIME_MASK));
+        } else if (prevHeader != null) {
+            header.setTimestamp(RtmpHeader.unwrap(prevHeader.getTimestamp(), header.getTime()));
+        }
+        final RtmpMessage message = MessageType.decode(header, payload);
+        payload = null;
+        if(header.isChunkSize()) {
+            final ChunkSize csMessage = (ChunkSize) message;
+            logger.debug("decoder new chunk size: {}", csMessage);
+            chunkSize = csMessage.getChunkSize();
+        }
+        completedHeaders.put(channelId, header);
+        return message;
+    }
+
+    private boolean isHeaderReadable(final ChannelBuffer in) {
+        final int readable = in.readableBytes();
+        if(readable < 1) {
+            return false;
+        }
+
+        final int index = in.readerIndex();
+        final int firstByte = in.getByte(index) & 0xff;
+        final int basicHeaderLength;
+        switch(firstByte & 0x3f) {
+            case 0:
+                basicHeaderLength = 2;
+                break;
+            case 1:
+                basicHeaderLength = 3;
+                break;
+            default:
+                basicHeaderLength = 1;
+                break;
+        }
+
+        final int messageHeaderLength = MESSAGE_HEADER_LENGTHS[firstByte >> 6];
+        int headerLength = basicHeaderLength + messageHeaderLength;
+        if(readable < headerLength) {
+            return false;
+        }
+        if(messageHeaderLength > 0) {
+            if(in.getUnsignedMedium(index + basicHeaderLength) == RtmpHeader.MAX_NORMAL_HEADER_TIME) {
+                headerLength += 4; // extended timestamp
+            }
+        } else {
+            // a continuation of an extended timestamp message repeats it
+            final RtmpHeader prevHeader = incompleteHeaders.get(getChannelId(in, index, firstByte));
+            if(prevHeader != null) {
+                headerLength += prevHeader.getContinuationExtendedTimeLength();
+            }
+        }
+        return readable >= headerLength;
+    }
+
+    private static int getChannelId(final ChannelBuffer in, final int index, final int firstByte) {
+        switch(firstByte & 0x3f) {
+            case 0:
+                return 64 + in.getUnsignedByte(index + 1);
+            case 1:
+                return 64 + in.getUnsignedByte(index + 1) + (in.getUnsignedByte(index + 2) << 8);
+            default:
+                return firstByte & 0x3f;
+        }
+    }
+
+}
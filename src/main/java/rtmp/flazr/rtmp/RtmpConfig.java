@@ -25,7 +25,10 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 public class RtmpConfig {
     
@@ -36,6 +39,36 @@ public class RtmpConfig {
     public static String SERVER_HOME_DIR = "home";
     public static int TIMER_TICK_SIZE = 100;
     public static int SERVER_PORT = 1935;
+    public static int BOSS_THREAD_COUNT = 1;
+    public static int WORKER_THREAD_COUNT = Runtime.getRuntime().availableProcessors() * 2;
+    public static int FANOUT_LANES = 0;
+    public static int FANOUT_LANE_QUEUE_BYTES = 4 * 1024 * 1024; // media queued per lane before video is dropped
+    public static int AGGREGATE_DURATION = 0; // millis
+    public static boolean SHARED_ENCODING = true;
+    public static boolean INCREMENTAL_DECODER = false;
+    public static boolean ENCODER_DIRECT_BUFFERS = false;
+    public static int ENCODER_POOL_SIZE = 16; // MiB of reused direct encoder buffers, 0 = off
+    public static boolean COMPOSITE_ENCODING = false;
+    public static int GOP_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+    public static int GOP_CACHE_MAX_DURATION = 15000; // millis
+    public static int WRITE_QUEUE_HIGH_WATERMARK = 0; // no queue, e.g. 1024 * 1024
+    public static int WRITE_QUEUE_LOW_WATERMARK = 256 * 1024;
+    public static int WRITE_QUEUE_MAX_BYTES = 4 * 1024 * 1024;
+    public static int WRITE_COALESCE_BYTES = 0;
+    public static int WRITE_COALESCE_DELAY = 5; // millis
+    public static int WINDOW_ACK_SIZE = 250000;
+    public static int PEER_BANDWIDTH = 250000;
+    public static boolean FLOW_CONTROL_PACING = false;
+    public static int RECORD_THREADS = 2;
+    public static int RECORD_QUEUE_SIZE = 4096; // messages per recording
+    public static int RECORD_SYNC_INTERVAL = 1000; // millis
+    public static int FLV_INDEX_CACHE_SIZE = 256; // indexes of vod files kept in memory
+    public static int VOD_THREADS = 2; // run the vod players of all viewers, at least
+    public static int VOD_MAX_THREADS = 64;
+    public static int VOD_PLAYERS_PER_THREAD = 16; // a thread more for each of them, up to VOD_MAX_THREADS
+    public static int FLV_BLOCK_SIZE = 1024 * 1024; // bytes of flv files read and cached at once
+    public static int FLV_BLOCK_CACHE_SIZE = 256; // MiB of cached flv blocks, off heap
+    public static Set<String> LOOP_STREAMS = Collections.emptySet(); // stream names played as looped 24/7 channels
 
     public static void configureServer(String flazrConfPath) {
         configure(flazrConfPath, Type.SERVER);
@@ -59,6 +92,82 @@ public class RtmpConfig {
                 }
                 logger.info("home dir: '{}'", homeFile.getAbsolutePath());
                 logger.info("server port: {}", SERVER_PORT);
+                Integer bossThreadCount = parseInt(props.getProperty("server.boss_threads", String.valueOf(BOSS_THREAD_COUNT)));
+                if (bossThreadCount != null && bossThreadCount > 0) BOSS_THREAD_COUNT = bossThreadCount;
+                Integer workerThreadCount = parseInt(props.getProperty("server.worker_threads", String.valueOf(WORKER_THREAD_COUNT)));
+                if (workerThreadCount != null && workerThreadCount > 0) WORKER_THREAD_COUNT = workerThreadCount;
+                Integer fanOutLanes = parseInt(props.getProperty("server.fanout_lanes", String.valueOf(FANOUT_LANES)));
+                if (fanOutLanes != null) FANOUT_LANES = fanOutLanes;
+                Integer fanOutLaneQueueBytes = parseInt(props.getProperty("server.fanout_lane_queue_bytes", String.valueOf(FANOUT_LANE_QUEUE_BYTES)));
+                if (fanOutLaneQueueBytes != null && fanOutLaneQueueBytes > 0) FANOUT_LANE_QUEUE_BYTES = fanOutLaneQueueBytes;
+                logger.info("server threads: boss {}, worker {}, fan out lanes {}", BOSS_THREAD_COUNT, WORKER_THREAD_COUNT, FANOUT_LANES);
+                SHARED_ENCODING = Boolean.parseBoolean(props.getProperty("server.shared_encoding", "true"));
+                logger.info("shared encoding: {}", SHARED_ENCODING);
+                INCREMENTAL_DECODER = Boolean.parseBoolean(props.getProperty("server.incremental_decoder", "false"));
+                logger.info("incremental decoder: {}", INCREMENTAL_DECODER);
+                ENCODER_DIRECT_BUFFERS = Boolean.parseBoolean(props.getProperty("server.encoder_direct_buffers", "false"));
+                Integer encoderPoolSize = parseInt(props.getProperty("server.encoder_pool_size", String.valueOf(ENCODER_POOL_SIZE)));
+                if (encoderPoolSize != null && encoderPoolSize >= 0) ENCODER_POOL_SIZE = encoderPoolSize;
+                logger.info("encoder direct buffers: {}, encoder pool size: {} MiB", ENCODER_DIRECT_BUFFERS, ENCODER_POOL_SIZE);
+                COMPOSITE_ENCODING = Boolean.parseBoolean(props.getProperty("server.composite_encoding", "false"));
+                logger.info("composite encoding: {}", COMPOSITE_ENCODING);
+                Integer gopCacheMaxBytes = parseInt(props.getProperty("server.gop_cache_max_bytes", String.valueOf(GOP_CACHE_MAX_BYTES)));
+                if (gopCacheMaxBytes != null) GOP_CACHE_MAX_BYTES = gopCacheMaxBytes;
+                Integer gopCacheMaxDuration = parseInt(props.getProperty("server.gop_cache_max_duration", String.valueOf(GOP_CACHE_MAX_DURATION)));
+                if (gopCacheMaxDuration != null) GOP_CACHE_MAX_DURATION = gopCacheMaxDuration;
+                logger.info("gop cache: max bytes {}, max duration {} ms", GOP_CACHE_MAX_BYTES, GOP_CACHE_MAX_DURATION);
+                Integer writeQueueHigh = parseInt(props.getProperty("server.write_queue_high_watermark", String.valueOf(WRITE_QUEUE_HIGH_WATERMARK)));
+                if (writeQueueHigh != null) WRITE_QUEUE_HIGH_WATERMARK = writeQueueHigh;
+                Integer writeQueueLow = parseInt(props.getProperty("server.write_queue_low_watermark", String.valueOf(WRITE_QUEUE_LOW_WATERMARK)));
+                if (writeQueueLow != null) WRITE_QUEUE_LOW_WATERMARK = writeQueueLow;
+                Integer writeQueueMax = parseInt(props.getProperty("server.write_queue_max_bytes", String.valueOf(WRITE_QUEUE_MAX_BYTES)));
+                if (writeQueueMax != null) WRITE_QUEUE_MAX_BYTES = writeQueueMax;
+                logger.info("write queue: high watermark {}, low watermark {}, max bytes {}",
+                        WRITE_QUEUE_HIGH_WATERMARK, WRITE_QUEUE_LOW_WATERMARK, WRITE_QUEUE_MAX_BYTES);
+                Integer writeCoalesceBytes = parseInt(props.getProperty("server.write_coalesce_bytes", String.valueOf(WRITE_COALESCE_BYTES)));
+                if (writeCoalesceBytes != null) WRITE_COALESCE_BYTES = writeCoalesceBytes;
+                Integer writeCoalesceDelay = parseInt(props.getProperty("server.write_coalesce_delay", String.valueOf(WRITE_COALESCE_DELAY)));
+                if (writeCoalesceDelay != null) WRITE_COALESCE_DELAY = writeCoalesceDelay;
+                logger.info("write coalescing: max bytes {}, max delay {} ms", WRITE_COALESCE_BYTES, WRITE_COALESCE_DELAY);
+                Integer aggregateDuration = parseInt(props.getProperty("server.aggregate_duration", String.valueOf(AGGREGATE_DURATION)));
+                if (aggregateDuration != null) AGGREGATE_DURATION = aggregateDuration;
+                logger.info("aggregate duration: {} ms", AGGREGATE_DURATION);
+                Integer windowAckSize = parseInt(props.getProperty("server.window_ack_size", String.valueOf(WINDOW_ACK_SIZE)));
+                if (windowAckSize != null && windowAckSize > 0) WINDOW_ACK_SIZE = windowAckSize;
+                Integer peerBandwidth = parseInt(props.getProperty("server.peer_bandwidth", String.valueOf(PEER_BANDWIDTH)));
+                if (peerBandwidth != null && peerBandwidth > 0) PEER_BANDWIDTH = peerBandwidth;
+                FLOW_CONTROL_PACING = Boolean.parseBoolean(props.getProperty("server.flow_control_pacing", "false"));
+                logger.info("flow control: window ack size {}, peer bandwidth {}, pacing {}", WINDOW_ACK_SIZE, PEER_BANDWIDTH, FLOW_CONTROL_PACING);
+                Integer recordThreads = parseInt(props.getProperty("server.record_threads", String.valueOf(RECORD_THREADS)));
+                if (recordThreads != null && recordThreads > 0) RECORD_THREADS = recordThreads;
+                Integer recordQueueSize = parseInt(props.getProperty("server.record_queue_size", String.valueOf(RECORD_QUEUE_SIZE)));
+                if (recordQueueSize != null && recordQueueSize > 0) RECORD_QUEUE_SIZE = recordQueueSize;
+                Integer recordSyncInterval = parseInt(props.getProperty("server.record_sync_interval", String.valueOf(RECORD_SYNC_INTERVAL)));
+                if (recordSyncInterval != null && recordSyncInterval > 0) RECORD_SYNC_INTERVAL = recordSyncInterval;
+                logger.info("recording: threads {}, queue size {}, sync interval {} ms", RECORD_THREADS, RECORD_QUEUE_SIZE, RECORD_SYNC_INTERVAL);
+                Integer flvIndexCacheSize = parseInt(props.getProperty("server.flv_index_cache_size", String.valueOf(FLV_INDEX_CACHE_SIZE)));
+                if (flvIndexCacheSize != null && flvIndexCacheSize >= 0) FLV_INDEX_CACHE_SIZE = flvIndexCacheSize;
+                Integer vodThreads = parseInt(props.getProperty("server.vod_threads", String.valueOf(VOD_THREADS)));
+                if (vodThreads != null && vodThreads > 0) VOD_THREADS = vodThreads;
+                Integer vodMaxThreads = parseInt(props.getProperty("server.vod_max_threads", String.valueOf(VOD_MAX_THREADS)));
+                if (vodMaxThreads != null && vodMaxThreads > 0) VOD_MAX_THREADS = vodMaxThreads;
+                VOD_MAX_THREADS = Math.max(VOD_MAX_THREADS, VOD_THREADS);
+                Integer vodPlayersPerThread = parseInt(props.getProperty("server.vod_players_per_thread", String.valueOf(VOD_PLAYERS_PER_THREAD)));
+                if (vodPlayersPerThread != null && vodPlayersPerThread > 0) VOD_PLAYERS_PER_THREAD = vodPlayersPerThread;
+                Integer flvBlockSize = parseInt(props.getProperty("server.flv_block_size", String.valueOf(FLV_BLOCK_SIZE)));
+                if (flvBlockSize != null && flvBlockSize >= 64 * 1024) FLV_BLOCK_SIZE = flvBlockSize;
+                Integer flvBlockCacheSize = parseInt(props.getProperty("server.flv_block_cache_size", String.valueOf(FLV_BLOCK_CACHE_SIZE)));
+                if (flvBlockCacheSize != null && flvBlockCacheSize >= 0) FLV_BLOCK_CACHE_SIZE = flvBlockCacheSize;
+                logger.info("vod: flv index cache size {}, threads {} ~ {} ({} players per thread), block size {}, block cache {} MiB",
+                        FLV_INDEX_CACHE_SIZE, VOD_THREADS, VOD_MAX_THREADS, VOD_PLAYERS_PER_THREAD, FLV_BLOCK_SIZE, FLV_BLOCK_CACHE_SIZE);
+                final Set<String> loopStreams = new HashSet<>();
+                for (String loopStream : props.getProperty("server.loop_streams", "").split(",")) {
+                    if (!loopStream.trim().isEmpty()) {
+                        loopStreams.add(loopStream.trim().toLowerCase());
+                    }
+                }
+                LOOP_STREAMS = loopStreams;
+                logger.info("loop streams: {}", LOOP_STREAMS);
             }
         }        
     }
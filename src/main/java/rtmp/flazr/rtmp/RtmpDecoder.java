@@ -23,10 +23,13 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rtmp.flazr.rtmp.RtmpDecoder.DecoderState;
+import rtmp.flazr.rtmp.message.BytesRead;
 import rtmp.flazr.rtmp.message.ChunkSize;
 import rtmp.flazr.rtmp.message.MessageType;
 
@@ -39,8 +42,15 @@ public class RtmpDecoder extends ReplayingDecoder<DecoderState> {
         GET_PAYLOAD
     }
 
+    private final FlowControl flowControl;
+
     public RtmpDecoder() {
+        this(new FlowControl());
+    }
+
+    public RtmpDecoder(final FlowControl flowControl) {
         super(DecoderState.GET_HEADER);
+        this.flowControl = flowControl;
     }
 
     private RtmpHeader header;
@@ -48,9 +58,23 @@ public class RtmpDecoder extends ReplayingDecoder<DecoderState> {
     private ChannelBuffer payload;
     private int chunkSize = 128;
 
-    private final RtmpHeader[] incompleteHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
-    private final ChannelBuffer[] incompletePayloads = new ChannelBuffer[RtmpHeader.MAX_CHANNEL_ID];
-    private final RtmpHeader[] completedHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
+    private final ChunkStreamTable<RtmpHeader> incompleteHeaders = new ChunkStreamTable<>();
+    private final ChunkStreamTable<ChannelBuffer> incompletePayloads = new ChunkStreamTable<>();
+    private final ChunkStreamTable<RtmpHeader> completedHeaders = new ChunkStreamTable<>();
+
+    // counted as read from the socket, before any decoding (or replaying), and acknowledged as they arrive:
+    // a message spanning windows does not hold its acknowledgement back until it completes
+    @Override
+    public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+        if (e.getMessage() instanceof ChannelBuffer) {
+            flowControl.addBytesRead(((ChannelBuffer) e.getMessage()).readableBytes());
+            final long ack = flowControl.takeAck();
+            if (ack >= 0) {
+                Channels.write(ctx.getChannel(), new BytesRead(ack));
+            }
+        }
+        super.messageReceived(ctx, e);
+    }
 
     @Override
     protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer in, final DecoderState state) {
@@ -58,24 +82,27 @@ public class RtmpDecoder extends ReplayingDecoder<DecoderState> {
             case GET_HEADER:
                 header = new RtmpHeader(in, incompleteHeaders);
                 channelId = header.getChannelId();
-                if(incompletePayloads[channelId] == null) { // new chunk stream
-                    incompleteHeaders[channelId] = header;
-                    incompletePayloads[channelId] = ChannelBuffers.buffer(header.getSize());
+                payload = incompletePayloads.get(channelId);
+                if(payload == null) { // new chunk stream
+                    incompleteHeaders.put(channelId, header);
+                    payload = ChannelBuffers.buffer(header.getSize());
+                    incompletePayloads.put(channelId, payload);
                 }
-                payload = incompletePayloads[channelId];
                 checkpoint(DecoderState.GET_PAYLOAD);
             case GET_PAYLOAD:
-                final byte[] bytes = new byte[Math.min(payload.writableBytes(), chunkSize)];
-                in.readBytes(bytes);
-                payload.writeBytes(bytes);
+                // straight from the cumulation into the message buffer, no intermediate array
+                // (a slice must not outlive this call, the cumulation gets compacted in place)
+                payload.writeBytes(in.readSlice(Math.min(payload.writableBytes(), chunkSize)));
                 checkpoint(DecoderState.GET_HEADER);
                 if(payload.writable()) { // more chunks remain
                     return null;
                 }
-                incompletePayloads[channelId] = null;
-                final RtmpHeader prevHeader = completedHeaders[channelId];
+                incompletePayloads.remove(channelId);
+                final RtmpHeader prevHeader = completedHeaders.get(channelId);
                 if (!header.isLarge()) {
-                    header.setTime(prevHeader.getTime() + header.getDeltaTime());
+                    header.setTimestamp(prevHeader.getTimestamp() + (header.getDeltaTime() & RtmpHeader.TIME_MASK));
+                } else if (prevHeader != null) {
+                    header.setTimestamp(RtmpHeader.unwrap(prevHeader.getTimestamp(), header.getTime()));
                 }
                 final RtmpMessage message = MessageType.decode(header, payload);
                 /*if (logger.isDebugEnabled()) {
@@ -87,7 +114,7 @@ public class RtmpDecoder extends ReplayingDecoder<DecoderState> {
                     logger.debug("decoder new chunk size: {}", csMessage);
                     chunkSize = csMessage.getChunkSize();
                 }
-                completedHeaders[channelId] = header;
+                completedHeaders.put(channelId, header);
                 return message;
             default:
                 throw new RuntimeException("unexpected decoder state: " + state);
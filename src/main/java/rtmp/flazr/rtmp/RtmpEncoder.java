@@ -20,7 +20,11 @@
 package rtmp.flazr.rtmp;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
+import org.jboss.netty.buffer.HeapChannelBufferFactory;
+import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.MessageEvent;
@@ -29,22 +33,71 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rtmp.flazr.rtmp.message.ChunkSize;
 import rtmp.flazr.rtmp.message.Control;
+import rtmp.flazr.rtmp.message.DataMessage;
 
 public class RtmpEncoder extends SimpleChannelDownstreamHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(RtmpEncoder.class);
+    private static final String HANDSHAKER = "handshaker";
 
     private int chunkSize = 128;
-    private RtmpHeader[] channelPrevHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
+    // a message chunked for this subscriber alone takes a pooled buffer, given back when its write is done;
+    // the others (shared copies, messages over the pool sizes, pool used up) come from the factory:
+    // direct buffers skip the JDK's temporary copy on socket writes but are freed by the GC only
+    private final EncodeBufferPool bufferPool;
+    private final ChannelBufferFactory bufferFactory = RtmpConfig.ENCODER_DIRECT_BUFFERS
+            ? DirectChannelBufferFactory.getInstance() : HeapChannelBufferFactory.getInstance();
+    private boolean poolOutput; // while encoding for writeRequested
+    private ChannelBuffer pooledOutput; // taken from the pool by the last encode
+    private final ChunkStreamTable<RtmpHeader> channelPrevHeaders = new ChunkStreamTable<>();
+    // every message encoded into a buffer of its own (no shared or composite output), which may be modified in place:
+    // for rtmpe, whose handshaker stays in the pipeline to encrypt the output (it leaves after a plain handshake)
+    private boolean privateBuffers;
+    private boolean handshakerGone; // looked up on each write until then
+
+    public RtmpEncoder() {
+        this(EncodeBufferPool.getInstance());
+    }
+
+    RtmpEncoder(final EncodeBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
 
     private void clearPrevHeaders() {
         logger.debug("clearing prev stream headers");
-        channelPrevHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
+        channelPrevHeaders.clear();
     }
 
+    // messages of a channel are written from its I/O thread, the fan out lanes and the vod threads:
+    // encoded and passed on one at a time, the header compression state matches the order on the wire
     @Override
-    public void writeRequested(final ChannelHandlerContext ctx, final MessageEvent e) {
-        Channels.write(ctx, e.getFuture(), encode((RtmpMessage) e.getMessage()));
+    public synchronized void writeRequested(final ChannelHandlerContext ctx, final MessageEvent e) {
+        if (!handshakerGone) {
+            privateBuffers = ctx.getPipeline().get(HANDSHAKER) != null;
+            handshakerGone = !privateBuffers;
+        }
+        final ChannelFuture future = e.getFuture();
+        // the buffer goes back when the future is done, so not for a future that is done already
+        poolOutput = bufferPool.isEnabled() && !future.isDone();
+        final ChannelBuffer out;
+        try {
+            out = encode((RtmpMessage) e.getMessage());
+        } catch (RuntimeException ex) {
+            if (pooledOutput != null) {
+                bufferPool.release(pooledOutput);
+                pooledOutput = null;
+            }
+            throw ex;
+        } finally {
+            poolOutput = false;
+        }
+
+        final ChannelBuffer pooled = pooledOutput;
+        if (pooled != null) {
+            pooledOutput = null;
+            future.addListener(f -> bufferPool.release(pooled));
+        }
+        Channels.write(ctx, future, out);
     }
 
     public ChannelBuffer encode(final RtmpMessage message) {
@@ -72,46 +125,72 @@ public class RtmpEncoder extends SimpleChannelDownstreamHandler {
         final int channelId = header.getChannelId();
         header.setSize(in.readableBytes());
 
-        final RtmpHeader prevHeader = channelPrevHeaders[channelId];
+        // header type and delta are kept local, the header may be shared with other subscribers
+        final RtmpHeader.Type headerType;
+        final int deltaTime;
+        final RtmpHeader prevHeader = channelPrevHeaders.get(channelId);
+        // on the 64 bit timeline, a delta is an unsigned 32 bit field and cannot go backwards
+        final long timeDiff = prevHeader == null ? -1 : header.getTimestamp() - prevHeader.getTimestamp();
         if(prevHeader != null // first stream message is always large
                 && header.getStreamId() > 0 // all control messages always large
-                && header.getTime() > 0) { // if time is zero, always large
+                && header.getTimestamp() > 0 // if time is zero, always large
+                && timeDiff >= 0 && timeDiff <= RtmpHeader.TIME_MASK) { // a jump back (seek, new loop) restarts with large
             if(header.getSize() == prevHeader.getSize()) {
-                header.setHeaderType(RtmpHeader.Type.SMALL);
+                headerType = RtmpHeader.Type.SMALL;
             } else {
-                header.setHeaderType(RtmpHeader.Type.MEDIUM);
-            }
-            final int deltaTime = header.getTime() - prevHeader.getTime();
-            if(deltaTime < 0) {
-                logger.warn("negative time: {}", header);
-                header.setDeltaTime(0);
-            } else {
-                header.setDeltaTime(deltaTime);
+                headerType = RtmpHeader.Type.MEDIUM;
             }
+            deltaTime = (int) timeDiff;
         } else {
             // otherwise force to LARGE
-            header.setHeaderType(RtmpHeader.Type.LARGE);
+            headerType = RtmpHeader.Type.LARGE;
+            deltaTime = 0;
         }
 
-        channelPrevHeaders[channelId] = header;
+        channelPrevHeaders.put(channelId, header);
         /*if(logger.isDebugEnabled()) {
             logger.debug(">> {}", message);
         }*/
 
-        final ChannelBuffer out = ChannelBuffers.buffer(
-                RtmpHeader.MAX_ENCODED_SIZE
-                        + header.getSize()
-                        + header.getSize() / chunkSize
-        );
+        if(RtmpConfig.SHARED_ENCODING && !privateBuffers && message instanceof DataMessage) {
+            // same message, chunk size and header -> same bytes on the wire for every subscriber
+            final DataMessage dataMessage = (DataMessage) message;
+            final long key = encodedChunksKey(chunkSize, headerType,
+                    headerType == RtmpHeader.Type.LARGE ? header.getStreamId() : deltaTime);
+            ChannelBuffer out = dataMessage.getEncodedChunks(key);
+            if(out == null) {
+                out = dataMessage.putEncodedChunks(key, encodeChunks(header, headerType, deltaTime, in, false));
+            }
+            return out.duplicate();
+        }
+
+        return encodeChunks(header, headerType, deltaTime, in, poolOutput);
+    }
+
+    private ChannelBuffer encodeChunks(final RtmpHeader header, final RtmpHeader.Type headerType,
+                                       final int deltaTime, final ChannelBuffer in, final boolean pooled) {
+        if(RtmpConfig.COMPOSITE_ENCODING && !privateBuffers) {
+            return encodeChunksComposite(header, headerType, deltaTime, in);
+        }
+
+        final int capacity = RtmpHeader.MAX_ENCODED_SIZE
+                + header.getSize()
+                + header.getSize() / chunkSize * RtmpHeader.MAX_TINY_ENCODED_SIZE;
+        ChannelBuffer out = pooled ? bufferPool.acquire(capacity) : null;
+        if(out != null) {
+            pooledOutput = out;
+        } else {
+            out = bufferFactory.getBuffer(capacity);
+        }
 
         boolean first = true;
         while(in.readable()) {
             final int size = Math.min(chunkSize, in.readableBytes());
             if(first) {
-                header.encode(out);
+                header.encode(out, headerType, deltaTime);
                 first = false;
             } else {
-                out.writeBytes(header.getTinyHeader());
+                header.encodeTinyHeader(out, headerType, deltaTime);
             }
             in.readBytes(out, size);
         }
@@ -119,4 +198,31 @@ public class RtmpEncoder extends SimpleChannelDownstreamHandler {
         return out;
     }
 
+    // chunk headers interleaved with slices of the payload, the payload itself is not copied here
+    private ChannelBuffer encodeChunksComposite(final RtmpHeader header, final RtmpHeader.Type headerType,
+                                                final int deltaTime, final ChannelBuffer in) {
+        final int chunkCount = (header.getSize() + chunkSize - 1) / chunkSize;
+        final ChannelBuffer headers = bufferFactory.getBuffer(RtmpHeader.MAX_ENCODED_SIZE + chunkCount * RtmpHeader.MAX_TINY_ENCODED_SIZE);
+        final ChannelBuffer[] parts = new ChannelBuffer[chunkCount * 2];
+
+        int index = 0;
+        while(in.readable()) {
+            final int headerStart = headers.writerIndex();
+            if(index == 0) {
+                header.encode(headers, headerType, deltaTime);
+            } else {
+                header.encodeTinyHeader(headers, headerType, deltaTime);
+            }
+            parts[index++] = headers.slice(headerStart, headers.writerIndex() - headerStart);
+            parts[index++] = in.readSlice(Math.min(chunkSize, in.readableBytes()));
+        }
+
+        return ChannelBuffers.wrappedBuffer(parts);
+    }
+
+    // LARGE headers carry no delta but an absolute stream id, which takes the delta's place in the key
+    private static long encodedChunksKey(final int chunkSize, final RtmpHeader.Type headerType, final int deltaOrStreamId) {
+        return ((long) chunkSize << 34) | ((long) headerType.intValue() << 32) | (deltaOrStreamId & 0xFFFFFFFFL);
+    }
+
 }
\ No newline at end of file
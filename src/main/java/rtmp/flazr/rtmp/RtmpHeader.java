@@ -49,16 +49,19 @@ public class RtmpHeader {
     public static final int MAX_CHANNEL_ID = 65600;
     public static final int MAX_NORMAL_HEADER_TIME = 0xFFFFFF;
     public static final int MAX_ENCODED_SIZE = 18;
+    public static final int MAX_TINY_ENCODED_SIZE = 7; // basic header and extended timestamp
+    public static final long TIME_MASK = 0xFFFFFFFFL;
 
     private Type headerType;
     private int channelId;
     private int streamId;
-    private int deltaTime;
-    private int time;
+    private int deltaTime; // unsigned 32 bits, as on the wire
+    private long time; // not wrapped, the wire carries the lower 32 bits
+    private long extendedTime = -1; // the extended timestamp field of the message's first chunk, -1 when none
     private int size;
     private MessageType messageType;
 
-    public RtmpHeader(ChannelBuffer in, RtmpHeader[] incompleteHeaders) {
+    public RtmpHeader(ChannelBuffer in, ChunkStreamTable<RtmpHeader> incompleteHeaders) {
         //=================== TYPE AND CHANNEL (1 - 3 bytes) ===================
         final int firstByteInt = in.readByte();
         final int typeAndChannel;
@@ -78,34 +81,37 @@ public class RtmpHeader {
         }
         headerType = Type.valueToEnum(headerTypeInt);
         //========================= REMAINING HEADER ===========================
-        final RtmpHeader prevHeader = incompleteHeaders[channelId];
+        final RtmpHeader prevHeader = incompleteHeaders.get(channelId);
 
         switch(headerType) {
             case LARGE:
-                time = in.readMedium();
+                time = in.readUnsignedMedium();
                 size = in.readMedium();
                 messageType = MessageType.valueToEnum(in.readByte());
                 streamId = Utils.readInt32Reverse(in);
                 if(time == MAX_NORMAL_HEADER_TIME) {
-                    time = in.readInt();
+                    time = in.readUnsignedInt();
+                    extendedTime = time;
                 }
                 break;
             case MEDIUM:
-                deltaTime = in.readMedium();
+                deltaTime = in.readUnsignedMedium();
                 size = in.readMedium();
                 messageType = MessageType.valueToEnum(in.readByte());
                 streamId = prevHeader.streamId;
                 if(deltaTime == MAX_NORMAL_HEADER_TIME) {
                     deltaTime = in.readInt();
+                    extendedTime = deltaTime & TIME_MASK;
                 }
                 break;
             case SMALL:
-                deltaTime = in.readMedium();
+                deltaTime = in.readUnsignedMedium();
                 size = prevHeader.size;
                 messageType = prevHeader.messageType;
                 streamId = prevHeader.streamId;
                 if(deltaTime == MAX_NORMAL_HEADER_TIME) {
                     deltaTime = in.readInt();
+                    extendedTime = deltaTime & TIME_MASK;
                 }
                 break;
             case TINY:
@@ -115,13 +121,19 @@ public class RtmpHeader {
                 size = prevHeader.size;
                 messageType = prevHeader.messageType;
                 streamId = prevHeader.streamId;
+                extendedTime = prevHeader.extendedTime;
+                // the spec repeats the extended timestamp on the chunks after a first one that has it, decided by
+                // the header alone: the payload is never looked at (peers that leave it out are not supported)
+                if(extendedTime >= 0) {
+                    in.skipBytes(4);
+                }
                 break;
         }
     }
 
     public RtmpHeader(MessageType messageType, int time, int size) {
         this(messageType);
-        this.time = time;
+        this.time = time & TIME_MASK;
         this.size = size;
     }
 
@@ -187,14 +199,41 @@ public class RtmpHeader {
         this.channelId = channelId;
     }
 
+    // the lower 32 bits of the timestamp, the wire time (compare with serial number arithmetic, a - b)
     public int getTime() {
-        return time;
+        return (int) time;
     }
 
     public void setTime(int time) {
+        this.time = time & TIME_MASK;
+    }
+
+    // the timestamp on the connection's 64 bit timeline, not wrapping after 49.7 days
+    public long getTimestamp() {
+        return time;
+    }
+
+    public void setTimestamp(long time) {
         this.time = time;
     }
 
+    public boolean hasExtendedTime() {
+        return extendedTime >= 0;
+    }
+
+    // bytes of extended timestamp a continuation chunk of this header's message carries
+    public int getContinuationExtendedTimeLength() {
+        return extendedTime >= 0 ? 4 : 0;
+    }
+
+    /**
+     * the 64 bit timestamp of a 32 bit wire time, the one nearest to the reference (within 2^31 either way),
+     * so a LARGE header past the wraparound continues the timeline instead of jumping back 49.7 days
+     */
+    public static long unwrap(final long reference, final int time) {
+        return reference + (time - (int) reference);
+    }
+
     public int getDeltaTime() {
         return deltaTime;
     }
@@ -228,20 +267,22 @@ public class RtmpHeader {
     }
 
     public void encode(ChannelBuffer out) {
-        out.writeBytes(encodeHeaderTypeAndChannel(headerType.value, channelId));
+        encode(out, headerType, deltaTime);
+    }
+
+    // header type and delta time are chosen per connection by the encoder,
+    // so they are passed in instead of being stored on a possibly shared header
+    public void encode(ChannelBuffer out, final Type headerType, final int deltaTime) {
+        encodeHeaderTypeAndChannel(out, headerType.value, channelId);
         if(headerType == Type.TINY) {
             return;
         }
-        final boolean extendedTime;
-        if(headerType == Type.LARGE) {
-            extendedTime = time >= MAX_NORMAL_HEADER_TIME;
-        } else {
-            extendedTime = deltaTime >= MAX_NORMAL_HEADER_TIME;
-        }
+        final long timeField = getTimeField(headerType, deltaTime);
+        final boolean extendedTime = timeField >= MAX_NORMAL_HEADER_TIME;
         if(extendedTime) {
             out.writeMedium(MAX_NORMAL_HEADER_TIME);
         } else {                                        // LARGE / MEDIUM / SMALL
-            out.writeMedium(headerType == Type.LARGE ? time : deltaTime);
+            out.writeMedium((int) timeField);
         }
         if(headerType != Type.SMALL) {
             out.writeMedium(size);                      // LARGE / MEDIUM
@@ -251,22 +292,36 @@ public class RtmpHeader {
             }
         }
         if(extendedTime) {
-            out.writeInt(headerType == Type.LARGE ? time : deltaTime);
+            out.writeInt((int) timeField);
+        }
+    }
+
+    // continuation chunk of a message started with the given header type and delta time,
+    // repeating the extended timestamp of the first chunk as the spec has it
+    public void encodeTinyHeader(ChannelBuffer out, final Type headerType, final int deltaTime) {
+        encodeHeaderTypeAndChannel(out, Type.TINY.intValue(), channelId);
+        final long timeField = getTimeField(headerType, deltaTime);
+        if(timeField >= MAX_NORMAL_HEADER_TIME) {
+            out.writeInt((int) timeField);
         }
     }
 
-    public byte[] getTinyHeader() {
-        return encodeHeaderTypeAndChannel(Type.TINY.intValue(), channelId);
+    // unsigned 32 bit timestamp (LARGE) or delta field
+    private long getTimeField(final Type headerType, final int deltaTime) {
+        return (headerType == Type.LARGE ? time : deltaTime) & TIME_MASK;
     }
 
-    private static byte[] encodeHeaderTypeAndChannel(final int headerType, final int channelId) {
+    // written in place, this runs once per chunk
+    private static void encodeHeaderTypeAndChannel(final ChannelBuffer out, final int headerType, final int channelId) {
         if (channelId <= 63) {
-            return new byte[] {(byte) ((headerType << 6) + channelId)};
+            out.writeByte((headerType << 6) + channelId);
         } else if (channelId <= 320) {
-            return new byte[] {(byte) (headerType << 6), (byte) (channelId - 64)};
+            out.writeByte(headerType << 6);
+            out.writeByte(channelId - 64);
         } else {
-            return new byte[] {(byte) ((headerType << 6) | 1),
-                    (byte) ((channelId - 64) & 0xff), (byte) ((channelId - 64) >> 8)};
+            out.writeByte((headerType << 6) | 1);
+            out.writeByte((channelId - 64) & 0xff);
+            out.writeByte((channelId - 64) >> 8);
         }
     }
 
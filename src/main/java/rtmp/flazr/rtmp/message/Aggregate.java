@@ -20,10 +20,18 @@
 package rtmp.flazr.rtmp.message;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import rtmp.flazr.rtmp.RtmpHeader;
+import rtmp.flazr.rtmp.RtmpMessage;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class Aggregate extends DataMessage {
 
+    private static final int TAG_HEADER_SIZE = 11;
+    private static final int PREV_TAG_SIZE = 4;
+
     public Aggregate(RtmpHeader header, ChannelBuffer in) {
         super(header, in);
     }
@@ -45,4 +53,117 @@ public class Aggregate extends DataMessage {
         return false;
     }
 
+    /**
+     * the first byte (frame type, codec id) of the first video tag's data, -1 when there is no video tag
+     */
+    public int getFirstVideoFlags() {
+        int index = data.readerIndex();
+        final int end = data.writerIndex();
+        while (end - index >= TAG_HEADER_SIZE) {
+            final int type = data.getUnsignedByte(index);
+            final int size = data.getUnsignedMedium(index + 1);
+            if (end - index < TAG_HEADER_SIZE + size) {
+                break; // truncated tag
+            }
+            if (type == MessageType.VIDEO.intValue() && size > 0) {
+                return data.getUnsignedByte(index + TAG_HEADER_SIZE);
+            }
+            index += TAG_HEADER_SIZE + size + PREV_TAG_SIZE;
+        }
+        return -1;
+    }
+
+    /**
+     * whether a tag other than video (audio, script data) is in the payload
+     */
+    public boolean hasNonVideoTags() {
+        int index = data.readerIndex();
+        final int end = data.writerIndex();
+        while (end - index >= TAG_HEADER_SIZE) {
+            final int size = data.getUnsignedMedium(index + 1);
+            if (end - index < TAG_HEADER_SIZE + size) {
+                break; // truncated tag
+            }
+            if (data.getUnsignedByte(index) != MessageType.VIDEO.intValue()) {
+                return true;
+            }
+            index += TAG_HEADER_SIZE + size + PREV_TAG_SIZE;
+        }
+        return false;
+    }
+
+    /**
+     * an aggregate of the tags that are not video (audio, script data), at the time of the first of them,
+     * or null when there are none; the tags are copied
+     */
+    public Aggregate withoutVideo() {
+        int index = data.readerIndex();
+        final int end = data.writerIndex();
+        int firstTagTime = -1;
+        int firstKeptTagTime = -1;
+        ChannelBuffer out = null;
+        while (end - index >= TAG_HEADER_SIZE) {
+            final int type = data.getUnsignedByte(index);
+            final int size = data.getUnsignedMedium(index + 1);
+            final int tagTime = data.getUnsignedMedium(index + 4) | (data.getUnsignedByte(index + 7) << 24);
+            if (end - index < TAG_HEADER_SIZE + size) {
+                break; // truncated tag
+            }
+            if (firstTagTime == -1) {
+                firstTagTime = tagTime;
+            }
+            if (type != MessageType.VIDEO.intValue()) {
+                if (out == null) {
+                    out = ChannelBuffers.buffer(end - index);
+                    firstKeptTagTime = tagTime;
+                }
+                out.writeBytes(data, index, Math.min(TAG_HEADER_SIZE + size + PREV_TAG_SIZE, end - index));
+            }
+            index += TAG_HEADER_SIZE + size + PREV_TAG_SIZE;
+        }
+        if (out == null) {
+            return null;
+        }
+
+        final Aggregate aggregate = new Aggregate(0, out);
+        aggregate.header.setTimestamp(header.getTimestamp() + (firstKeptTagTime - firstTagTime));
+        aggregate.header.setChannelId(header.getChannelId());
+        aggregate.header.setStreamId(header.getStreamId());
+        return aggregate;
+    }
+
+    /**
+     * the flv tags of the payload as messages, their data slices this message's buffer (no copy).
+     * timestamps are moved onto this message's time, keeping the offsets between the tags;
+     * other tag types and a truncated last tag are skipped
+     */
+    public List<RtmpMessage> split() {
+        final List<RtmpMessage> messages = new ArrayList<>();
+        int index = data.readerIndex();
+        final int end = data.writerIndex();
+        int firstTagTime = -1;
+        while (end - index >= TAG_HEADER_SIZE) {
+            final int type = data.getUnsignedByte(index);
+            final int size = data.getUnsignedMedium(index + 1);
+            final int tagTime = data.getUnsignedMedium(index + 4) | (data.getUnsignedByte(index + 7) << 24);
+            if (end - index < TAG_HEADER_SIZE + size) {
+                break; // truncated tag
+            }
+            if (firstTagTime == -1) {
+                firstTagTime = tagTime;
+            }
+
+            // flv tags only carry audio, video and script data
+            if (type == MessageType.AUDIO.intValue() || type == MessageType.VIDEO.intValue() || type == MessageType.METADATA_AMF0.intValue()) {
+                final RtmpHeader subHeader = new RtmpHeader(MessageType.valueToEnum(type), 0, size);
+                subHeader.setTimestamp(header.getTimestamp() + (tagTime - firstTagTime));
+                subHeader.setStreamId(header.getStreamId());
+                messages.add(MessageType.decode(subHeader, data.slice(index + TAG_HEADER_SIZE, size)));
+            }
+
+            index += TAG_HEADER_SIZE + size + PREV_TAG_SIZE;
+        }
+        return messages;
+    }
+
 }
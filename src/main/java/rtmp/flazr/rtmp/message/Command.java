@@ -179,6 +179,16 @@ public abstract class Command extends AbstractMessage {
         return command;
     }
 
+    public static Command seekFailed(String reason, String playName, String clientId) {
+        Amf0Object status = onStatus(OnStatus.ERROR,
+                "NetStream.Seek.Failed", reason,
+                pair("details", playName),
+                pair("clientid", clientId));
+        Command command = new rtmp.flazr.rtmp.message.CommandAmf0("onStatus", null, status);
+        command.header.setChannelId(5);
+        return command;
+    }
+
     public static Command pauseNotify(String playName, String clientId) {
         Amf0Object status = onStatus(OnStatus.STATUS,
                 "NetStream.Pause.Notify", "Pausing " + playName,
@@ -199,6 +209,16 @@ public abstract class Command extends AbstractMessage {
         return command;
     }
 
+    public static Command pauseFailed(String reason, String playName, String clientId) {
+        Amf0Object status = onStatus(OnStatus.ERROR,
+                "NetStream.Pause.Failed", reason,
+                pair("details", playName),
+                pair("clientid", clientId));
+        Command command = new rtmp.flazr.rtmp.message.CommandAmf0("onStatus", null, status);
+        command.header.setChannelId(5);
+        return command;
+    }
+
     private static Command publishStatus(OnStatus onStatus, String code, String description, String streamName, String clientId, Pair ... pairs) {
         Amf0Object status = onStatus(onStatus,
                 code, description, streamName,
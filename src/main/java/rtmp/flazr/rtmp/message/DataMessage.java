@@ -23,6 +23,10 @@ import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import rtmp.flazr.rtmp.RtmpHeader;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * 
  * @author yama
@@ -30,9 +34,13 @@ import rtmp.flazr.rtmp.RtmpHeader;
  */
 public abstract class DataMessage extends AbstractMessage {
 
-    private boolean encoded;
     protected ChannelBuffer data;
 
+    // chunked wire form per (chunk size, header type, delta time or stream id), shared by all subscribers
+    private Map<Long, ChannelBuffer> encodedChunks;
+    private long encodedBytes;
+    private AtomicLong encodedBytesCounter; // of the holder of this message (gop cache), counts the encoded copies
+
     public DataMessage() {
         super();
     }
@@ -54,13 +62,48 @@ public abstract class DataMessage extends AbstractMessage {
 
     @Override
     public ChannelBuffer encode() {
-        if(encoded) {
-            // in case used multiple times e.g. broadcast
-            data.resetReaderIndex();            
-        } else {
-            encoded = true;
+        // in case used multiple times e.g. broadcast, each caller gets its own indexes
+        return data.duplicate();
+    }
+
+    public synchronized ChannelBuffer getEncodedChunks(final long key) {
+        if (encodedChunks == null) {
+            return null;
+        }
+        return encodedChunks.get(key);
+    }
+
+    public synchronized ChannelBuffer putEncodedChunks(final long key, final ChannelBuffer chunks) {
+        if (encodedChunks == null) {
+            encodedChunks = new HashMap<>(4);
+        }
+        final ChannelBuffer prev = encodedChunks.putIfAbsent(key, chunks);
+        if (prev != null) {
+            return prev;
+        }
+        encodedBytes += chunks.capacity();
+        if (encodedBytesCounter != null) {
+            encodedBytesCounter.addAndGet(chunks.capacity());
+        }
+        return chunks;
+    }
+
+    public synchronized long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /**
+     * the encoded copies made from now on are added to the counter, the ones made so far are moved onto it
+     * (off the previous counter); null detaches the message
+     */
+    public synchronized void setEncodedBytesCounter(final AtomicLong counter) {
+        if (encodedBytesCounter != null) {
+            encodedBytesCounter.addAndGet(-encodedBytes);
+        }
+        encodedBytesCounter = counter;
+        if (counter != null) {
+            counter.addAndGet(encodedBytes);
         }
-        return data;
     }
 
     @Override
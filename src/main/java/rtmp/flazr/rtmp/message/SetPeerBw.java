@@ -55,6 +55,10 @@ public class SetPeerBw extends AbstractMessage {
         return value;
     }
 
+    public LimitType getLimitType() {
+        return limitType;
+    }
+
     @Override
     protected MessageType getMessageType() {
         return MessageType.SET_PEER_BW;
@@ -31,6 +31,10 @@ public class Video extends DataMessage {
         return data.readableBytes() > 3 && data.getInt(0) == 0x17000000;
     }
 
+    public boolean isKeyFrame() { // frame type 1 in the flv video tag header
+        return data.readableBytes() > 0 && (data.getByte(0) & 0xf0) == 0x10;
+    }
+
     public Video(final RtmpHeader header, final ChannelBuffer in) {
         super(header, in);
     }
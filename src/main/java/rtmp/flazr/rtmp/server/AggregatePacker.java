@@ -0,0 +1,93 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import rtmp.flazr.rtmp.RtmpHeader;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Aggregate;
+import rtmp.flazr.rtmp.message.DataMessage;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs consecutive audio / video messages of a live stream into RTMP aggregate messages
+ * (flv tags: type, size, timestamp, stream id 0, data, previous tag size) spanning about {@code duration} millis.
+ * An aggregate is built once per stream and shared by all its aggregate capable subscribers.
+ * A video keyframe always starts a new aggregate, so that a slow subscriber's write queue can drop
+ * aggregates by their first video tag and resume on the one starting with a keyframe.
+ */
+public class AggregatePacker {
+
+    private static final int TAG_HEADER_SIZE = 11;
+    private static final int MAX_BYTES = 256 * 1024;
+
+    private final int duration; // millis
+
+    private final List<RtmpMessage> pending = new ArrayList<>();
+    private int pendingBytes;
+
+    public AggregatePacker(int duration) {
+        this.duration = duration;
+    }
+
+    public static boolean isPackable(final RtmpMessage message) {
+        final RtmpHeader header = message.getHeader();
+        return (header.isAudio() || header.isVideo()) && !((DataMessage) message).isConfig();
+    }
+
+    /**
+     * @return the aggregate once the pending messages span the duration (or the byte bound) or a keyframe
+     * comes after them, otherwise null
+     */
+    public synchronized Aggregate add(final RtmpMessage message) {
+        final Aggregate previous = !pending.isEmpty() && message instanceof Video && ((Video) message).isKeyFrame()
+                ? flush() : null;
+
+        pending.add(message);
+        pendingBytes += TAG_HEADER_SIZE + message.getHeader().getSize() + 4;
+        if (previous != null) {
+            return previous; // the keyframe goes out with the next ones
+        }
+
+        final int span = message.getHeader().getTime() - pending.get(0).getHeader().getTime();
+        if (span >= duration || pendingBytes >= MAX_BYTES) {
+            return flush();
+        }
+        return null;
+    }
+
+    public synchronized Aggregate flush() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+
+        final ChannelBuffer out = ChannelBuffers.buffer(pendingBytes);
+        for (RtmpMessage message : pending) {
+            final RtmpHeader header = message.getHeader();
+            final ChannelBuffer data = message.encode();
+            out.writeByte(header.getMessageType().intValue());
+            out.writeMedium(header.getSize());
+            out.writeMedium(header.getTime()); // lower 24 bits
+            out.writeByte(header.getTime() >>> 24); // extended
+            out.writeMedium(0); // stream id
+            out.writeBytes(data);
+            out.writeInt(TAG_HEADER_SIZE + header.getSize());
+        }
+
+        final RtmpHeader first = pending.get(0).getHeader();
+        final Aggregate aggregate = new Aggregate(first.getTime(), out);
+        aggregate.getHeader().setStreamId(first.getStreamId());
+
+        pending.clear();
+        pendingBytes = 0;
+        return aggregate;
+    }
+
+    public synchronized void clear() {
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+}
@@ -0,0 +1,296 @@
+package rtmp.flazr.rtmp.server;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Aggregate;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single threaded lanes that write (and encode) live media to subscribers off the publisher's I/O thread.
+ * Netty 3.2 gives no way to run a task on a channel's worker, so each worker gets a lane of its own
+ * (given at least as many lanes as workers): a subscriber is put in the lane of its I/O worker, and one lane
+ * task per frame writes to the channels of that worker, whose selector is woken up once for all of them.
+ * A subscriber always stays in the same lane, so its messages keep their order.
+ * A lane's queue is bounded like a connection's write queue ({@link WriteQueueHandler}), but a lane carries
+ * the media of several streams, so the skipping is per stream ({@link LaneStream}): over
+ * {@code FANOUT_LANE_QUEUE_BYTES} the queued non-key video of the stream with the most queued bytes is dropped
+ * (then its keyframes, then the next stream's, until back under the bound), and that stream's video is skipped
+ * until one of its keyframes arrives with the lane under a quarter of the bound; past twice the bound nothing
+ * more is queued, video so dropped makes its stream skip as well. Joins and leaves are never dropped, nor are
+ * aggregates that carry audio.
+ */
+public class FanOutLanes {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutLanes.class);
+    private static FanOutLanes fanOutLanes = null;
+
+    /**
+     * The media of one stream in one lane (a {@link SubscriberGroup} keeps one per lane), guarded by the lane
+     */
+    public static final class LaneStream {
+        private long queuedBytes;
+        private boolean skipVideo;
+    }
+
+    private static final class Task {
+        private final Runnable runnable;
+        private final LaneStream stream; // null for joins and leaves
+        private final WriteQueueHandler.Kind kind;
+        private final int size;
+
+        private Task(Runnable runnable, LaneStream stream, WriteQueueHandler.Kind kind, int size) {
+            this.runnable = runnable;
+            this.stream = stream;
+            this.kind = kind;
+            this.size = size;
+        }
+    }
+
+    private static final class Lane implements Runnable {
+        private final int index;
+        private final long highWatermark;
+        private final long lowWatermark;
+        private final long maxBytes;
+
+        // guarded by this
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private long queuedBytes;
+        private boolean stopped;
+
+        private volatile long droppedFrames;
+        private volatile long droppedBytes;
+
+        private Lane(int index, long highWatermark) {
+            this.index = index;
+            this.highWatermark = highWatermark;
+            this.lowWatermark = highWatermark / 4;
+            this.maxBytes = highWatermark * 2;
+        }
+
+        private synchronized void add(final Task task) {
+            if (stopped) {
+                return;
+            }
+
+            final LaneStream stream = task.stream;
+            if (stream != null) {
+                if (task.kind != WriteQueueHandler.Kind.OTHER && stream.skipVideo) {
+                    if (task.kind == WriteQueueHandler.Kind.KEY_VIDEO && queuedBytes <= lowWatermark) {
+                        stream.skipVideo = false;
+                    } else {
+                        drop(task);
+                        return;
+                    }
+                }
+                if (queuedBytes + task.size > maxBytes) {
+                    drop(task); // audio and config too, the lane is that far behind
+                    return;
+                }
+                stream.queuedBytes += task.size;
+            }
+
+            queue.add(task);
+            queuedBytes += task.size;
+            while (queuedBytes > highWatermark) {
+                final LaneStream largest = getLargestStream();
+                if (largest == null) {
+                    break;
+                }
+                dropQueued(largest, false);
+                if (queuedBytes > highWatermark) {
+                    dropQueued(largest, true);
+                }
+                if (largest.skipVideo) {
+                    continue;
+                }
+                break; // nothing of it to drop, audio and config are left
+            }
+            notifyAll();
+        }
+
+        // of the streams with video left in the queue
+        private LaneStream getLargestStream() {
+            LaneStream largest = null;
+            for (Task task : queue) {
+                if (task.stream != null && task.kind != WriteQueueHandler.Kind.OTHER
+                        && (largest == null || task.stream.queuedBytes > largest.queuedBytes)) {
+                    largest = task.stream;
+                }
+            }
+            return largest;
+        }
+
+        private void dropQueued(final LaneStream stream, final boolean withKeyFrames) {
+            final Iterator<Task> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                final Task task = iterator.next();
+                if (task.stream == stream && (task.kind == WriteQueueHandler.Kind.VIDEO
+                        || (withKeyFrames && task.kind == WriteQueueHandler.Kind.KEY_VIDEO))) {
+                    iterator.remove();
+                    queuedBytes -= task.size;
+                    stream.queuedBytes -= task.size;
+                    drop(task);
+                }
+            }
+        }
+
+        private void drop(final Task task) {
+            if (droppedFrames++ == 0) {
+                logger.warn("[FanOutLanes] Lane {} is behind, dropping media. ({} queued bytes)", index, queuedBytes);
+            }
+            droppedBytes += task.size;
+            if (task.kind != WriteQueueHandler.Kind.OTHER) {
+                task.stream.skipVideo = true; // until its next keyframe
+            }
+        }
+
+        private synchronized Task take() throws InterruptedException {
+            while (queue.isEmpty()) {
+                if (stopped) {
+                    return null;
+                }
+                wait();
+            }
+            final Task task = queue.poll();
+            queuedBytes -= task.size;
+            if (task.stream != null) {
+                task.stream.queuedBytes -= task.size;
+            }
+            return task;
+        }
+
+        // the queued tasks still run
+        private synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Task task;
+                try {
+                    task = take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == null) {
+                    return;
+                }
+                try {
+                    task.runnable.run();
+                } catch (Exception e) {
+                    logger.warn("[FanOutLanes] Fail to execute the fan out task. (lane={})", index, e);
+                }
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Lane{" +
+                    "index=" + index +
+                    ", queued=" + queue.size() +
+                    ", queuedBytes=" + queuedBytes +
+                    ", droppedFrames=" + droppedFrames +
+                    ", droppedBytes=" + droppedBytes +
+                    '}';
+        }
+    }
+
+    private final Lane[] lanes;
+    private final Map<Thread, Integer> laneByWorker = new ConcurrentHashMap<>();
+    private final AtomicInteger nextLane = new AtomicInteger(0);
+
+    FanOutLanes(int laneCount, long queueBytes) {
+        lanes = new Lane[Math.max(laneCount, 0)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i, queueBytes);
+            new BasicThreadFactory
+                    .Builder()
+                    .namingPattern("RtmpFanOut-" + i)
+                    .daemon(true)
+                    .build()
+                    .newThread(lanes[i])
+                    .start();
+        }
+    }
+
+    public static synchronized FanOutLanes getInstance() {
+        if (fanOutLanes == null) {
+            fanOutLanes = new FanOutLanes(RtmpConfig.FANOUT_LANES, RtmpConfig.FANOUT_LANE_QUEUE_BYTES);
+        }
+
+        return fanOutLanes;
+    }
+
+    public boolean isEnabled() {
+        return lanes.length > 0;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * the lane of a subscriber's I/O worker thread, workers get lanes of their own in the order they ask
+     * (shared round-robin only when there are more workers than lanes)
+     */
+    public int getLaneOfWorker(final Thread worker) {
+        return laneByWorker.computeIfAbsent(worker, thread -> nextLane.getAndIncrement() % lanes.length);
+    }
+
+    // a join or a leave, never dropped
+    public void execute(int lane, Runnable task) {
+        lanes[lane].add(new Task(task, null, null, 0));
+    }
+
+    // a live media write of a stream, dropped by the lane's bound
+    public void execute(int lane, LaneStream stream, RtmpMessage message, Runnable task) {
+        WriteQueueHandler.Kind kind = WriteQueueHandler.kindOf(message);
+        if (kind != WriteQueueHandler.Kind.OTHER && message instanceof Aggregate && ((Aggregate) message).hasNonVideoTags()) {
+            kind = WriteQueueHandler.Kind.OTHER; // kept like audio, the connection's write queue drops its video tags only
+        }
+        lanes[lane].add(new Task(task, stream, kind, message.getHeader().getSize()));
+    }
+
+    public long getDroppedFrames() {
+        long droppedFrames = 0;
+        for (Lane lane : lanes) {
+            droppedFrames += lane.droppedFrames;
+        }
+        return droppedFrames;
+    }
+
+    public long getDroppedBytes() {
+        long droppedBytes = 0;
+        for (Lane lane : lanes) {
+            droppedBytes += lane.droppedBytes;
+        }
+        return droppedBytes;
+    }
+
+    public void stop() {
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("FanOutLanes{");
+        for (Lane lane : lanes) {
+            builder.append("\r\n\t").append(lane);
+        }
+        return builder.append('}').toString();
+    }
+
+}
@@ -0,0 +1,145 @@
+package rtmp.flazr.rtmp.server;
+
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.DataMessage;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Audio / video messages of a live stream since its last video keyframe, replayed to a new subscriber
+ * right after the config messages so that playback can start without waiting for the next keyframe.
+ * When the GOP grows over the byte bound (which includes the chunked copies the shared encoding keeps on
+ * the cached messages) or the duration bound it is dropped as a whole, and new subscribers get nothing
+ * until caching restarts at the next keyframe: they wait for it ({@link SubscriberGroup}), as an older
+ * GOP followed by the live frames of the current one would not decode.
+ * Callers use the cache's monitor to keep caching + fan out and snapshot + subscribe atomic.
+ */
+public class GopCache {
+
+    private final int maxBytes;
+    private final int maxDuration; // millis
+
+    private List<RtmpMessage> messages = new ArrayList<>(); // current gop
+    private boolean hasKeyFrame;
+    private boolean overflowed; // current gop dropped, waiting for the next keyframe
+    private long keyFrameTime;
+    private long bytes;
+    private final AtomicLong encodedBytes = new AtomicLong(); // chunked copies of the cached messages
+
+    // metrics, read without the monitor
+    private volatile long cachedBytes;
+    private volatile int cachedCount;
+    private volatile long overflowCount;
+
+    public GopCache() {
+        this(RtmpConfig.GOP_CACHE_MAX_BYTES, RtmpConfig.GOP_CACHE_MAX_DURATION);
+    }
+
+    public GopCache(int maxBytes, int maxDuration) {
+        this.maxBytes = maxBytes;
+        this.maxDuration = maxDuration;
+    }
+
+    public synchronized void add(final RtmpMessage message) {
+        if (maxBytes <= 0) {
+            return;
+        }
+
+        if (!message.getHeader().isAudio() && !message.getHeader().isVideo()) {
+            return;
+        }
+
+        if (((DataMessage) message).isConfig()) { // sent separately as config messages
+            return;
+        }
+
+        if (message.getHeader().isVideo() && ((Video) message).isKeyFrame()) {
+            startGop(message.getHeader().getTimestamp());
+        }
+
+        if (!hasKeyFrame || overflowed) {
+            return;
+        }
+
+        messages.add(message);
+        ((DataMessage) message).setEncodedBytesCounter(encodedBytes);
+        bytes += message.getHeader().getSize();
+
+        if (bytes + encodedBytes.get() > maxBytes || message.getHeader().getTimestamp() - keyFrameTime > maxDuration) {
+            overflowed = true;
+            overflowCount++;
+            messages = detach(messages);
+            bytes = 0;
+        }
+        updateMetrics();
+    }
+
+    private void startGop(final long time) {
+        messages = detach(messages);
+        bytes = 0;
+        hasKeyFrame = true;
+        overflowed = false;
+        keyFrameTime = time;
+    }
+
+    private static List<RtmpMessage> detach(final List<RtmpMessage> messages) {
+        for (RtmpMessage message : messages) {
+            ((DataMessage) message).setEncodedBytesCounter(null);
+        }
+        messages.clear();
+        return messages;
+    }
+
+    private void updateMetrics() {
+        cachedBytes = bytes;
+        cachedCount = messages.size();
+    }
+
+    // the current gop from its keyframe on, empty when there is none or it is over the bounds
+    public synchronized List<RtmpMessage> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    public synchronized void clear() {
+        detach(messages);
+        hasKeyFrame = false;
+        overflowed = false;
+        bytes = 0;
+        updateMetrics();
+    }
+
+    // payload bytes
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    public int getCachedCount() {
+        return cachedCount;
+    }
+
+    // gops dropped for growing over the bound
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    @Override
+    public String toString() {
+        return "GopCache{" +
+                "count=" + cachedCount +
+                ", bytes=" + cachedBytes +
+                ", encodedBytes=" + getEncodedBytes() +
+                ", overflowCount=" + overflowCount +
+                ", maxBytes=" + maxBytes +
+                ", maxDuration=" + maxDuration +
+                '}';
+    }
+
+}
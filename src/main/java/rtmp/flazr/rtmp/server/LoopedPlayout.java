@@ -0,0 +1,227 @@
+package rtmp.flazr.rtmp.server;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.base.PublishType;
+import rtmp.flazr.io.flv.FlvReader;
+import rtmp.flazr.rtmp.LoopedReader;
+import rtmp.flazr.rtmp.RtmpHeader;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Command;
+import service.resource.ResourceReleaseManager;
+import service.resource.StreamIdManager;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A "24/7 channel": plays a file endlessly ({@link LoopedReader}) into a live {@link ServerStream}, in place of
+ * a publisher. Subscribers join it like any live stream (config messages, gop cache, fan out), however many
+ * there are the file is read once. Runs on the {@link VodEngine} at real time on the 64 bit timeline of the
+ * reader, from the first play of the stream until the server stops. A channel nobody watches for
+ * {@code PARK_DELAY} is parked: nothing is read until a subscriber shows up, then the timeline goes on
+ * where it stopped. The next loop's file is opened on a thread of its own, not on the engine's pool.
+ */
+public class LoopedPlayout {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoopedPlayout.class);
+
+    private static final int LEAD_TIME = 50; // millis published ahead of the clock
+    private static final int MAX_RUN_MESSAGES = 256;
+    private static final int MAX_RUN_INTERVAL = 250; // millis
+    private static final int PARK_DELAY = 5000; // millis without subscribers
+    private static final int PARK_CHECK_INTERVAL = 500; // millis
+
+    // the reader waits for it at a loop boundary on an engine thread, so it must not be the engine's pool
+    private static final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(
+            new BasicThreadFactory
+                    .Builder()
+                    .namingPattern("RtmpLoopPrefetch")
+                    .daemon(true)
+                    .build()
+    );
+
+    private static final Map<String, LoopedPlayout> playouts = new ConcurrentHashMap<>(); // app/stream
+
+    private final VodEngine engine = VodEngine.getInstance();
+    private final String key;
+    private final ServerApplication application;
+    private final ServerStream stream;
+    private final LoopedReader reader;
+
+    private RtmpMessage pending; // read, not due yet
+    private long pendingTime; // on the reader's timeline
+    private long clockStartNanos;
+    private long clockStartTime;
+    private boolean stopped;
+    private boolean parked;
+    private long emptySinceNanos = -1;
+    private long publishedMessages;
+
+    private LoopedPlayout(String key, ServerApplication application, ServerStream stream, LoopedReader reader) {
+        this.key = key;
+        this.application = application;
+        this.stream = stream;
+        this.reader = reader;
+    }
+
+    /**
+     * @return the live stream of the channel, started by this call unless it runs already, null when it fails
+     */
+    public static synchronized ServerStream start(final ServerApplication application, final String streamName, final File file) {
+        final String key = application.getAppName() + "/" + streamName;
+        final LoopedPlayout running = playouts.get(key);
+        if (running != null) {
+            return running.stream;
+        }
+        if (application.hasStream(streamName)) {
+            return null; // published meanwhile
+        }
+
+        final LoopedReader reader;
+        try {
+            reader = new LoopedReader(() -> new FlvReader(file), prefetchExecutor, LoopedReader.LOOP_FOREVER);
+        } catch (Exception e) {
+            logger.warn("[LoopedPlayout] Fail to open [{}]", file.getAbsolutePath(), e);
+            return null;
+        }
+
+        final int streamId = StreamIdManager.getInstance().takeStreamId();
+        if (streamId < 0) {
+            reader.close();
+            return null;
+        }
+        final ServerStream stream = application.addStream(streamId, streamName, PublishType.LIVE.asString());
+        if (stream == null) {
+            reader.close();
+            ResourceReleaseManager.getInstance().releaseStreamId(streamId, key);
+            return null;
+        }
+        stream.setPlayout(true);
+
+        // as a publisher's metadata and codec configs, for the subscribers to start with
+        for (RtmpMessage message : reader.getStartMessages()) {
+            message.getHeader().setStreamId(streamId);
+            stream.addConfigMessage(message);
+        }
+
+        final LoopedPlayout playout = new LoopedPlayout(key, application, stream, reader);
+        playouts.put(key, playout);
+        playout.begin();
+        logger.info("[LoopedPlayout] Started [{}] looping {}", key, file.getAbsolutePath());
+        return stream;
+    }
+
+    private synchronized void begin() {
+        clockStartTime = reader.seek(0);
+        clockStartNanos = System.nanoTime();
+        engine.schedule(this::run, 0);
+    }
+
+    private synchronized void run() {
+        if (stopped || park()) {
+            return;
+        }
+
+        final long due = getClockTime() + LEAD_TIME;
+        for (int i = 0; i < MAX_RUN_MESSAGES; i++) {
+            if (pending == null) {
+                if (!reader.hasNext()) {
+                    logger.warn("[LoopedPlayout] [{}] has nothing more to play, stopping.", key);
+                    stop();
+                    return;
+                }
+                pending = reader.next();
+                pendingTime = reader.getTimePosition();
+            }
+            if (pendingTime > due) {
+                engine.schedule(this::run, Math.min(pendingTime - due, MAX_RUN_INTERVAL));
+                return;
+            }
+            publish(pending);
+            pending = null;
+        }
+        engine.schedule(this::run, 0);
+    }
+
+    /**
+     * parks the channel after PARK_DELAY without subscribers and checks for them every PARK_CHECK_INTERVAL,
+     * on return false the clock is moved on by the time it was parked
+     * @return true while parked
+     */
+    private boolean park() {
+        final SubscriberRegistry subscribers = stream.getSubscribers();
+        if (subscribers != null && !subscribers.isEmpty()) {
+            emptySinceNanos = -1;
+            if (parked) {
+                parked = false;
+                clockStartTime = pending != null ? pendingTime : reader.getTimePosition();
+                clockStartNanos = System.nanoTime();
+                logger.info("[LoopedPlayout] [{}] has subscribers, resumed at {} ms.", key, clockStartTime);
+            }
+            return false;
+        }
+
+        if (!parked) {
+            final long now = System.nanoTime();
+            if (emptySinceNanos < 0) {
+                emptySinceNanos = now;
+            }
+            if ((now - emptySinceNanos) / 1000000 < PARK_DELAY) {
+                return false;
+            }
+            parked = true;
+            logger.info("[LoopedPlayout] [{}] has no subscribers, parked at {} ms.", key, reader.getTimePosition());
+        }
+        engine.schedule(this::run, PARK_CHECK_INTERVAL);
+        return true;
+    }
+
+    // as ServerHandler.broadcast, audio and video only (metadata and configs went out at the start)
+    private void publish(final RtmpMessage message) {
+        final RtmpHeader header = message.getHeader();
+        if (!header.isAudio() && !header.isVideo()) {
+            return;
+        }
+        header.setStreamId(stream.getStreamId());
+
+        final GopCache gopCache = stream.getGopCache();
+        synchronized (gopCache) {
+            gopCache.add(message);
+            stream.writeToSubscribers(message);
+        }
+        publishedMessages++;
+    }
+
+    private long getClockTime() {
+        return clockStartTime + (System.nanoTime() - clockStartNanos) / 1000000;
+    }
+
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        playouts.remove(key, this);
+        reader.close();
+
+        final SubscriberRegistry subscribers = stream.getSubscribers();
+        if (subscribers != null) {
+            subscribers.write(Command.unpublishNotify(stream.getStreamId()));
+        }
+        application.deleteStream(stream.getStreamName());
+        ResourceReleaseManager.getInstance().releaseStreamId(stream.getStreamId(), key);
+        logger.info("[LoopedPlayout] Stopped [{}] ({} messages, at {} ms)", key, publishedMessages, reader.getTimePosition());
+    }
+
+    public static void stopAll() {
+        for (LoopedPlayout playout : playouts.values()) {
+            playout.stop();
+        }
+    }
+
+}
@@ -23,11 +23,14 @@ import jdk.internal.loader.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rtmp.base.PublishType;
+import rtmp.flazr.rtmp.RtmpConfig;
 import rtmp.flazr.rtmp.StreamType;
 import rtmp.flazr.util.Utils;
 import service.resource.ResourceManager;
 import service.resource.ResourceReleaseManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -80,11 +83,51 @@ public class ServerApplication {
 
         ServerStream serverStream = streams.remove(streamName);
         if (serverStream != null) {
+            serverStream.closeRecorder();
             logger.warn("[ServerApplication] ServerStream [{}] (-)DELETED", streamName);
             logger.debug("[ServerApplication] [(-)DELETED] \n{}", serverStream);
         }
     }
 
+    /**
+     * recorded files of the application: <server home>/apps/<app name>/<stream name>.flv,
+     * null when the stream name is not a plain file name (no "..", path separators or control characters)
+     * or the file would not be under the application's directory once resolved
+     */
+    public File getStreamFile(final String rawStreamName) {
+        final String fileName = rawStreamName == null ? null : rawStreamName.replaceAll("^/+|/+$", "");
+        if (!isPlainName(fileName) || fileName.indexOf('/') >= 0 || !isPlainName(appName)) {
+            logger.warn("[ServerApp({})] Invalid file name [{}]", appName, rawStreamName);
+            return null;
+        }
+
+        try {
+            final File appDir = new File(RtmpConfig.SERVER_HOME_DIR + "/apps", appName).getCanonicalFile();
+            final File file = new File(appDir, fileName.toLowerCase() + ".flv").getCanonicalFile();
+            final File appsDir = new File(RtmpConfig.SERVER_HOME_DIR, "apps").getCanonicalFile();
+            if (!appDir.toPath().startsWith(appsDir.toPath()) || !appDir.equals(file.getParentFile())) {
+                logger.warn("[ServerApp({})] File of [{}] is outside the application directory. ({})", appName, rawStreamName, file);
+                return null;
+            }
+            return file;
+        } catch (IOException e) {
+            logger.warn("[ServerApp({})] Fail to resolve the file of [{}]", appName, rawStreamName, e);
+            return null;
+        }
+    }
+
+    private static boolean isPlainName(final String name) {
+        if (name == null || name.isEmpty() || name.contains("..") || name.indexOf('\\') >= 0) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isISOControl(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public boolean hasStream(final String rawName) {
         final String streamName = cleanName(rawName);
         return streams.containsKey(streamName);
@@ -94,6 +137,10 @@ public class ServerApplication {
         return streams.size();
     }
 
+    public List<ServerStream> getStreams() {
+        return new ArrayList<>(streams.values());
+    }
+
     public List<String> getStreamNames() {
         synchronized (streams) {
             return new ArrayList<>(streams.keySet());
@@ -110,6 +157,9 @@ public class ServerApplication {
                             serverStream
                     );
                 }
+                if (serverStream != null) {
+                    serverStream.closeRecorder(); // record / append streams are not live, their files still get finished
+                }
             }
 
             streams.entrySet().removeIf(Objects::nonNull);
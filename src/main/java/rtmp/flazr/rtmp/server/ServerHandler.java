@@ -20,12 +20,17 @@
 package rtmp.flazr.rtmp.server;
 
 import org.jboss.netty.channel.*;
-import org.jboss.netty.channel.group.ChannelGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rtmp.base.PublishType;
 import rtmp.flazr.amf.Amf0Object;
+import rtmp.flazr.io.flv.FlvReader;
+import rtmp.flazr.io.flv.FlvWriter;
+import rtmp.flazr.rtmp.FlowControl;
+import rtmp.flazr.rtmp.RtmpConfig;
 import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.RtmpReader;
+import rtmp.flazr.rtmp.RtmpWriter;
 import rtmp.flazr.rtmp.message.*;
 import rtmp.flazr.util.ChannelUtils;
 import rtmp.metadata.AudioCodecId;
@@ -34,8 +39,8 @@ import rtmp.metadata.VideoCodecId;
 import service.resource.ResourceManager;
 import service.resource.ResourceReleaseManager;
 import service.resource.StreamIdManager;
-import service.scheduler.schedule.ScheduleManager;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Date;
@@ -45,12 +50,8 @@ public class ServerHandler extends SimpleChannelHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(ServerHandler.class);
 
-    private static final int BYTES_READ_WINDOW = 250000;
-    private static final int BYTES_WRITTEN_WINDOW = 250000;
-
-    private long bytesRead;
-    private long bytesReadLastSent;
-    private long bytesWritten;
+    // socket bytes read / written and acknowledged, shared with the handshaker and decoder
+    private final FlowControl flowControl;
 
     private ServerApplication application;
     private String clientId;
@@ -60,6 +61,7 @@ public class ServerHandler extends SimpleChannelHandler {
     private boolean aggregateModeEnabled = true;
 
     private ServerStream publishStream;
+    private VodPlayer vodPlayer; // playing a file
     private int streamId;
 
     private String remoteHost;
@@ -67,18 +69,23 @@ public class ServerHandler extends SimpleChannelHandler {
     private Date createTime;
     private String tcURL;
     private Channel channel;
+    private Thread ioThread; // the channel's netty worker, messages are received on it
     private String appName;
 
     private static final ResourceManager resourceManager = ResourceManager.getInstance();
     private static final StreamIdManager streamIdManager = StreamIdManager.getInstance();
     private static final ResourceReleaseManager resourceReleaseManager = ResourceReleaseManager.getInstance();
 
-    private final ScheduleManager scheduleManager;
-    private static final String RTMP_SCHEDULE_JOB = "RTMP";
-
     public ServerHandler() {
-        scheduleManager = new ScheduleManager();
-        scheduleManager.initJob(RTMP_SCHEDULE_JOB, 10, 10 * 2);
+        this(new FlowControl());
+    }
+
+    public ServerHandler(final FlowControl flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    public FlowControl getFlowControl() {
+        return flowControl;
     }
 
     public void setAggregateModeEnabled(boolean aggregateModeEnabled) {
@@ -103,7 +110,12 @@ public class ServerHandler extends SimpleChannelHandler {
 
     @Override
     public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) {
-        logger.debug("({}) [CHANNEL CLOSED] Channel: {}", channel.getId(), channel);
+        logger.debug("({}) [CHANNEL CLOSED] Channel: {}, {}", channel.getId(), channel, flowControl);
+
+        // a recording publisher dropping the connection without un-publishing, the file is finished all the same
+        if (publishStream != null && publishStream.getPublishChannel() == channel) {
+            resourceReleaseManager.closeRecorder(publishStream, clientId);
+        }
 
         /*if (publishStream != null) {
             publishStream.removeSubscriber(channel);
@@ -117,7 +129,7 @@ public class ServerHandler extends SimpleChannelHandler {
 
     @Override
     public void writeComplete(final ChannelHandlerContext ctx, final WriteCompletionEvent e) throws Exception {
-        bytesWritten += e.getWrittenAmount();
+        flowControl.addBytesWritten(e.getWrittenAmount());
         super.writeComplete(ctx, e);
     }
 
@@ -126,13 +138,7 @@ public class ServerHandler extends SimpleChannelHandler {
         try {
             final Channel messageEventChannel = messageEvent.getChannel();
             final RtmpMessage message = (RtmpMessage) messageEvent.getMessage();
-
-            bytesRead += message.getHeader().getSize();
-            if ((bytesRead - bytesReadLastSent) > BYTES_READ_WINDOW) {
-                BytesRead ack = new BytesRead(bytesRead);
-                messageEventChannel.write(ack);
-                bytesReadLastSent = bytesRead;
-            }
+            ioThread = Thread.currentThread();
 
             MessageType msgType = message.getHeader().getMessageType();
             switch (msgType) {
@@ -151,26 +157,28 @@ public class ServerHandler extends SimpleChannelHandler {
                     break;
                 case AUDIO:
                 case VIDEO:
-                    if (((DataMessage) message).isConfig()) {
-                        logger.debug("({}) [<{}>] Recv the rtmp config message: {}", msgType.name(), messageEventChannel.getId(), message);
-                        publishStream.addConfigMessage(message);
-                    }
+                    onMedia(messageEventChannel, message);
+                    break;
                 case AGGREGATE:
-                    broadcast(message);
+                    onAggregate(messageEventChannel, (Aggregate) message);
                     break;
                 case BYTES_READ:
-                    break;
-                case WINDOW_ACK_SIZE:
-                    WindowAckSize was = (WindowAckSize) message;
-                    if (was.getValue() != BYTES_READ_WINDOW) {
-                        messageEventChannel.write(SetPeerBw.dynamic(BYTES_READ_WINDOW));
+                    flowControl.onAck(((BytesRead) message).getValue());
+                    final WriteQueueHandler writeQueue = ctx.getPipeline().get(WriteQueueHandler.class);
+                    if (writeQueue != null) {
+                        writeQueue.resume(ctx.getPipeline());
                     }
                     break;
-                case SET_PEER_BW:
+                case WINDOW_ACK_SIZE: // acknowledge the peer every this many bytes
+                    flowControl.setAckWindow(((WindowAckSize) message).getValue());
+                    break;
+                case SET_PEER_BW: // limits our unacknowledged output
                     SetPeerBw spb = (SetPeerBw) message;
-                    if (spb.getValue() != BYTES_WRITTEN_WINDOW) {
-                        messageEventChannel.write(new WindowAckSize(BYTES_WRITTEN_WINDOW));
+                    if (flowControl.onPeerBandwidth(spb.getValue(), spb.getLimitType())) {
+                        flowControl.setWindowAckSize(spb.getValue());
+                        messageEventChannel.write(new WindowAckSize(spb.getValue()));
                     }
+                    logger.debug("({}) [FlowControl] peer bandwidth: {}", messageEventChannel.getId(), flowControl);
                     break;
                 default:
                     logger.warn("ignoring message: {}", message);
@@ -196,11 +204,39 @@ public class ServerHandler extends SimpleChannelHandler {
         return list.toArray(new RtmpMessage[list.size()]);
     }
 
+    private void onMedia(final Channel channel, final RtmpMessage message) {
+        if (((DataMessage) message).isConfig()) {
+            logger.debug("({}) [<{}>] Recv the rtmp config message: {}", message.getHeader().getMessageType().name(), channel.getId(), message);
+            publishStream.addConfigMessage(message);
+        }
+        broadcast(message);
+    }
+
+    // the sub messages go through the same path as plain ones (config capture, gop cache, fan out)
+    private void onAggregate(final Channel channel, final Aggregate aggregate) {
+        for (RtmpMessage message : aggregate.split()) {
+            if (message.getHeader().isAudio() || message.getHeader().isVideo()) {
+                onMedia(channel, message);
+            } else {
+                onMetadata(channel, message);
+            }
+        }
+    }
+
     private void broadcast(final RtmpMessage message) {
-        ChannelGroup subscribers = publishStream.getSubscribers();
-        if (subscribers == null) { return; }
+        if (publishStream.getSubscribers() == null) { return; }
 
-        subscribers.write(message);
+        final RtmpWriter recorder = publishStream.getRecorder();
+        if (recorder != null) {
+            recorder.write(message); // only queued, written by the recorder threads
+        }
+
+        // cache and fan out atomically, a subscriber joining in playResponse gets every frame exactly once
+        final GopCache gopCache = publishStream.getGopCache();
+        synchronized (gopCache) {
+            gopCache.add(message);
+            publishStream.writeToSubscribers(message);
+        }
     }
 
     private void writeToStream(final Channel channel, final RtmpMessage message) {
@@ -210,11 +246,11 @@ public class ServerHandler extends SimpleChannelHandler {
         channel.write(message);
     }
 
-    private void writeToStream(final ChannelGroup channelGroup, final RtmpMessage message) {
+    private void writeToStream(final SubscriberRegistry subscribers, final RtmpMessage message) {
         if(message.getHeader().getChannelId() > 2) {
             message.getHeader().setStreamId(streamId);
         }
-        channelGroup.write(message);
+        subscribers.write(message);
     }
 
     // MessageType.CONTROL
@@ -223,6 +259,9 @@ public class ServerHandler extends SimpleChannelHandler {
         if (control.getType() == Control.Type.SET_BUFFER) {
             logger.debug("received set buffer: {}", control);
             bufferDuration = control.getBufferLength();
+            if (vodPlayer != null) {
+                vodPlayer.setBufferLength(bufferDuration);
+            }
         } else {
             logger.info("({}) [Control] ignored control: {}", channel.getId(), control);
         }
@@ -297,10 +336,10 @@ public class ServerHandler extends SimpleChannelHandler {
                 closeDeleteResponse("CloseStream", clientStreamId);
                 break;
             case "pause":
-                pauseResponse(channel);
+                pauseResponse(channel, command);
                 break;
             case "seek":
-                seekResponse(channel);
+                seekResponse(channel, command);
                 break;
             case "publish":
                 publishResponse(channel, command);
@@ -328,8 +367,9 @@ public class ServerHandler extends SimpleChannelHandler {
         }
 
         // Window Ack, Set Peer BandWidth, Stream Begin
-        channel.write(new WindowAckSize(BYTES_WRITTEN_WINDOW));
-        channel.write(SetPeerBw.dynamic(BYTES_READ_WINDOW));
+        flowControl.setWindowAckSize(RtmpConfig.WINDOW_ACK_SIZE);
+        channel.write(new WindowAckSize(RtmpConfig.WINDOW_ACK_SIZE));
+        channel.write(SetPeerBw.dynamic(RtmpConfig.PEER_BANDWIDTH));
         channel.write(Control.streamBegin(streamId));
         // _result (connect response)
         final Command result = Command.connectSuccess(connect.getTransactionId());
@@ -383,6 +423,21 @@ public class ServerHandler extends SimpleChannelHandler {
 
         // Published ServerStream 조회
         publishStream = application.getStream(streamName);
+        if (publishStream == null) {
+            final File file = application.getStreamFile(streamName);
+            if (file == null) {
+                denyStream(channel, streamName, false, "Invalid stream name. (" + streamName + ")");
+                return;
+            }
+            if (RtmpConfig.LOOP_STREAMS.contains(streamName.toLowerCase()) && file.isFile()) {
+                // 24/7 channel, played as a live stream
+                publishStream = LoopedPlayout.start(application, streamName, file);
+            } else if (playStart != -1 && file.isFile()) {
+                // recorded file (not for play start -1, live only)
+                playFile(channel, file, playStart, playResetCommand);
+                return;
+            }
+        }
         if (publishStream == null) {
             // create play ServerStream, PlayStream 정리 위해 playStream flag 사용
             logger.warn("({}) [Play] Not Exist [{}] PublishStream.", clientId, streamName);
@@ -395,8 +450,8 @@ public class ServerHandler extends SimpleChannelHandler {
         );
 
         // ---------- LIVE STREAMING ---------- //
-        // live 타입으로 publish 했던 stream
-        if (publishStream.isLive()) {
+        // live 타입으로 publish 했던 stream (record / append 도 publish 중에는 live 로 전달)
+        if (publishStream.isLive() || publishStream.isRecording()) {
             // ChunkSize, StreamIsRecorded, StreamBegin, PlayStart, Metadata
             for (final RtmpMessage message : getStartMessages(playResetCommand)) {
                 writeToStream(channel, message);
@@ -420,24 +475,86 @@ public class ServerHandler extends SimpleChannelHandler {
                 writeToStream(channel, Video.empty());
             }
 
-            // PublishStream subscribers 에 playStream channel 추가
-            publishStream.addSubscriber(channel);
+            // 마지막 keyframe 부터 cache 된 media 전달 후 PublishStream subscribers 에 playStream channel 추가
+            final GopCache gopCache = publishStream.getGopCache();
+            synchronized (gopCache) {
+                final List<RtmpMessage> gopMessages = gopCache.getMessages();
+                logger.debug("({}) [Play] writing gop cache: {} messages, {} bytes", clientId, gopMessages.size(), gopCache.getCachedBytes());
+                publishStream.addSubscriber(channel, ioThread, gopMessages, aggregateModeEnabled);
+            }
             logger.info("({}) [Play] client requested live stream: {}, added to stream: {}", clientId, streamName, publishStream);
         } else {
             denyStream(channel, streamName, false, "Publish stream is not live. Fail to play. (" + streamName + ")");
         }
     }
 
+    private void playFile(final Channel channel, final File file, final int playStart, final Command playResetCommand) {
+        final RtmpReader reader;
+        try {
+            reader = new FlvReader(file);
+        } catch (Exception e) {
+            logger.warn("({}) [Play] Fail to open [{}]", clientId, file.getAbsolutePath(), e);
+            denyStream(channel, playName, false, "Fail to open the file. (" + playName + ")");
+            return;
+        }
+        if (aggregateModeEnabled && RtmpConfig.AGGREGATE_DURATION > 0) {
+            reader.setAggregateDuration(RtmpConfig.AGGREGATE_DURATION);
+        }
+
+        // ChunkSize, StreamIsRecorded, StreamBegin, PlayStart, Metadata
+        for (final RtmpMessage message : getStartMessages(playResetCommand)) {
+            writeToStream(channel, message);
+        }
+
+        vodPlayer = new VodPlayer(channel, reader, streamId, playName, clientId);
+        vodPlayer.setBufferLength(bufferDuration);
+        vodPlayer.start(Math.max(playStart, 0));
+        logger.info("({}) [Play] client requested file: {}, start: {}, buffer: {} ms", clientId, file.getAbsolutePath(), playStart, bufferDuration);
+    }
+
     // MessageType.COMMAND.pause
-    private void pauseResponse(final Channel channel) {
-        logger.warn("({}) Cannot pause when live", channel.getId());
-        denyStream(channel, null, false, "Cannot pause when live.");
+    private void pauseResponse(final Channel channel, final Command command) {
+        if (vodPlayer == null) {
+            logger.warn("({}) Cannot pause when live", channel.getId());
+            denyStream(channel, null, false, "Cannot pause when live.");
+            return;
+        }
+
+        // pause flag, then the time (optional)
+        final Object time = command.getArgCount() > 1 ? command.getArg(1) : null;
+        if (command.getArgCount() < 1 || !(command.getArg(0) instanceof Boolean) || (time != null && !isTime(time))) {
+            logger.warn("({}) [Pause] invalid arguments: {}", clientId, command);
+            writeToStream(channel, Command.pauseFailed("Invalid pause arguments.", playName, clientId));
+            return;
+        }
+
+        vodPlayer.pause((Boolean) command.getArg(0), time == null ? 0 : ((Number) time).longValue());
     }
 
     // MessageType.COMMAND.seek
-    private void seekResponse(final Channel channel) {
-        logger.warn("({}) Cannot seek when live", channel.getId());
-        denyStream(channel, null, false, "Cannot seek when live.");
+    private void seekResponse(final Channel channel, final Command command) {
+        if (vodPlayer == null) {
+            logger.warn("({}) Cannot seek when live", channel.getId());
+            denyStream(channel, null, false, "Cannot seek when live.");
+            return;
+        }
+
+        if (command.getArgCount() < 1 || !isTime(command.getArg(0))) {
+            logger.warn("({}) [Seek] invalid arguments: {}", clientId, command);
+            writeToStream(channel, Command.seekFailed("Invalid seek time.", playName, clientId));
+            return;
+        }
+
+        vodPlayer.seek(((Number) command.getArg(0)).longValue());
+    }
+
+    // milliseconds of a pause or seek: a number, not negative
+    private static boolean isTime(final Object arg) {
+        if (!(arg instanceof Number)) {
+            return false;
+        }
+        final double time = ((Number) arg).doubleValue();
+        return !Double.isNaN(time) && time >= 0;
     }
 
     // // MessageType.COMMAND.publish
@@ -471,7 +588,7 @@ public class ServerHandler extends SimpleChannelHandler {
                 return;
             }
 
-            if(publishStream.getPublishChannel() != null) {
+            if(publishStream.getPublishChannel() != null || publishStream.isPlayout()) {
                 logger.info("disconnecting publisher client, stream already in use");
                 ChannelFuture future = channel.write(Command.publishBadName(streamId));
                 future.addListener(ChannelFutureListener.CLOSE);
@@ -488,9 +605,26 @@ public class ServerHandler extends SimpleChannelHandler {
 
             if (publishStream.getPublishType() != null) {
                 switch (publishStream.getPublishType()) {
+                    case RECORD:
+                    case APPEND:
+                        final File file = application.getStreamFile(streamName);
+                        if (file == null) {
+                            denyStream(channel, streamName, true, "Invalid stream name. (" + streamName + ")");
+                            releaseResource();
+                            break;
+                        }
+                        try {
+                            publishStream.setRecorder(new FlvWriter(file, publishStream.getPublishType() == PublishType.APPEND));
+                        } catch (Exception e) {
+                            logger.warn("({}) [Publish] Fail to record [{}], un-publishing...", clientId, file.getAbsolutePath(), e);
+                            denyStream(channel, streamName, true, "Fail to record the stream.");
+                            releaseResource();
+                            break;
+                        }
+                        // recorded streams are live to subscribers as well
                     case LIVE:
                         // Subscribers 에게 NetStream.Play.PublishNotify 알림 전송, Header 에 streamId 전달
-                        final ChannelGroup subscribers = publishStream.getSubscribers();
+                        final SubscriberRegistry subscribers = publishStream.getSubscribers();
                         if (subscribers != null) {
                             subscribers.write(Command.publishNotify(streamId));
                             writeToStream(subscribers, Video.empty());
@@ -499,16 +633,6 @@ public class ServerHandler extends SimpleChannelHandler {
                             writeToStream(subscribers, Metadata.dataStart());
                         }
                         break;
-                    case RECORD: // DENY : 파일 스트리밍 지원하지 않음
-                        logger.warn("[ServerHandler] Record is not implemented yet, un-publishing...");
-                        denyStream(channel, streamName, true, "Record is not implemented yet.");
-                        releaseResource();
-                        break;
-                    case APPEND:
-                        logger.warn("[ServerHandler] Append is not implemented yet, un-publishing...");
-                        denyStream(channel, streamName, true, "Append is not implemented yet.");
-                        releaseResource();
-                        break;
                 }
             }
         } else { // un-publish
@@ -526,7 +650,10 @@ public class ServerHandler extends SimpleChannelHandler {
         }
 
         resourceReleaseManager.releaseStreamId(streamId, clientId);
-        scheduleManager.stopAll(RTMP_SCHEDULE_JOB);
+        if (vodPlayer != null) {
+            vodPlayer.stop();
+            vodPlayer = null;
+        }
     }
 
     // RTMP 실패 메시지 전송, streamId 정리
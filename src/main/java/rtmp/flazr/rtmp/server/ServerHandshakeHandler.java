@@ -24,6 +24,7 @@ import org.jboss.netty.channel.*;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.FlowControl;
 import rtmp.flazr.rtmp.RtmpHandshake;
 import rtmp.flazr.util.Utils;
 
@@ -35,11 +36,18 @@ public class ServerHandshakeHandler extends FrameDecoder implements ChannelDowns
 
     private boolean rtmpe;
     private final RtmpHandshake handshake;
+    private final FlowControl flowControl;
     private boolean partOneDone;
     private boolean handshakeDone;
 
     public ServerHandshakeHandler() {
+        this(new FlowControl());
+    }
+
+    // counts the handshake bytes it consumes, the decoder counts whatever is passed on
+    public ServerHandshakeHandler(final FlowControl flowControl) {
         handshake = new RtmpHandshake();
+        this.flowControl = flowControl;
         logger.debug("[ServerHandshakeHandler] NEW HANDSHAKE: {}", handshake);
     }
 
@@ -50,6 +58,7 @@ public class ServerHandshakeHandler extends FrameDecoder implements ChannelDowns
                 return null;
             }
             handshake.decodeClient0And1(in);
+            flowControl.addBytesRead(RtmpHandshake.HANDSHAKE_SIZE + 1);
             rtmpe = handshake.isRtmpe();
             ChannelFuture future = Channels.succeededFuture(channel);
             Channels.write(ctx, future, handshake.encodeServer0());
@@ -62,6 +71,7 @@ public class ServerHandshakeHandler extends FrameDecoder implements ChannelDowns
                 return null;
             }
             handshake.decodeClient2(in);
+            flowControl.addBytesRead(RtmpHandshake.HANDSHAKE_SIZE);
             handshakeDone = true;
             logger.debug("handshake done, rtmpe: {}", rtmpe);
             if (Arrays.equals(handshake.getPeerVersion(), Utils.fromHex("00000000"))) {
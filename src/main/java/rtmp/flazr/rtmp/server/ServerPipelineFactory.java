@@ -22,6 +22,9 @@ package rtmp.flazr.rtmp.server;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.Channels;
+import rtmp.flazr.rtmp.FlowControl;
+import rtmp.flazr.rtmp.RtmpChunkDecoder;
+import rtmp.flazr.rtmp.RtmpConfig;
 import rtmp.flazr.rtmp.RtmpDecoder;
 import rtmp.flazr.rtmp.RtmpEncoder;
 
@@ -30,10 +33,17 @@ public class ServerPipelineFactory implements ChannelPipelineFactory {
     @Override
     public ChannelPipeline getPipeline() {
         ChannelPipeline pipeline = Channels.pipeline();        
-        pipeline.addLast("handshaker", new ServerHandshakeHandler());
-        pipeline.addLast("decoder", new RtmpDecoder());
+        final FlowControl flowControl = new FlowControl();
+        pipeline.addLast("handshaker", new ServerHandshakeHandler(flowControl));
+        pipeline.addLast("decoder", RtmpConfig.INCREMENTAL_DECODER ? new RtmpChunkDecoder(flowControl) : new RtmpDecoder(flowControl));
+        if (RtmpConfig.WRITE_COALESCE_BYTES > 0) {
+            pipeline.addLast("coalescer", new WriteCoalescer()); // below the encoder, sees chunked buffers
+        }
         pipeline.addLast("encoder", new RtmpEncoder());
-        pipeline.addLast("handler", new ServerHandler());
+        if (RtmpConfig.WRITE_QUEUE_HIGH_WATERMARK > 0) {
+            pipeline.addLast("writeQueue", new WriteQueueHandler(RtmpConfig.FLOW_CONTROL_PACING ? flowControl : null));
+        }
+        pipeline.addLast("handler", new ServerHandler(flowControl));
         return pipeline;
     }
 
@@ -19,12 +19,13 @@
 package rtmp.flazr.rtmp.server;
 
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.group.ChannelGroup;
-import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rtmp.base.PublishType;
+import rtmp.flazr.rtmp.RtmpConfig;
 import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.RtmpWriter;
+import rtmp.flazr.rtmp.message.Aggregate;
 import rtmp.flazr.rtmp.message.Metadata;
 import rtmp.flazr.util.DateFormatUtil;
 import rtmp.flazr.util.Utils;
@@ -32,10 +33,10 @@ import rtmp.metadata.AudioAttr;
 import rtmp.metadata.VideoAttr;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class ServerStream {
 
@@ -47,16 +48,20 @@ public class ServerStream {
     private final String streamName;
     private final PublishType publishType;
 
-    private ChannelGroup subscribers;
-    private final List<String> subscriberChIds;
-    private final ReentrantLock subscribeLock = new ReentrantLock();
+    private SubscriberRegistry subscribers; // all of them, for notifications
+    private SubscriberGroup mediaSubscribers;
+    private SubscriberGroup aggregateSubscribers; // live media packed into aggregates, null when the mode is off
+    private AggregatePacker aggregatePacker;
 
     private Channel publishChannel;
     private int publishChannelId;
 
     private final List<RtmpMessage> configMessages;
+    private final GopCache gopCache = new GopCache();
+    private volatile RtmpWriter recorder; // record / append
     private final Map<String, String> metadata;
     private boolean isPlayStream;
+    private volatile boolean playout; // published by a LoopedPlayout, there is no publish channel
     ///////////////////////////////////////////////////////
 
     ///////////////////////////////////////////////////////
@@ -76,7 +81,6 @@ public class ServerStream {
         }
 
         metadata = new HashMap<>();
-        subscriberChIds = new ArrayList<>();
     }
     ///////////////////////////////////////////////////////
 
@@ -97,35 +101,55 @@ public class ServerStream {
         return PublishType.LIVE.equals(publishType);
     }
 
+    // record / append, played live to subscribers while they are published
+    public boolean isRecording() {
+        return PublishType.RECORD.equals(publishType) || PublishType.APPEND.equals(publishType);
+    }
+
     public PublishType getPublishType() {
         return publishType;
     }
 
-    public ChannelGroup getSubscribers() {
+    public SubscriberRegistry getSubscribers() {
         return subscribers;
     }
 
     public void initSubscribers() {
         if (streamName != null && subscribers == null) {
-            this.subscribers = new DefaultChannelGroup(streamName);
+            this.subscribers = new SubscriberRegistry();
+            this.mediaSubscribers = new SubscriberGroup();
+            if (RtmpConfig.AGGREGATE_DURATION > 0) {
+                this.aggregateSubscribers = new SubscriberGroup();
+                this.aggregatePacker = new AggregatePacker(RtmpConfig.AGGREGATE_DURATION);
+            }
         }
     }
 
     public void addSubscriber(Channel channel) {
-        if (publishChannel == null) {
+        addSubscriber(channel, Thread.currentThread(), Collections.emptyList(), false);
+    }
+
+    // worker is the subscriber's I/O thread (its fan out lane),
+    // initialMessages (e.g. the gop cache) are written before the first live media message,
+    // the caller keeps this atomic with writeToSubscribers (gop cache monitor)
+    public void addSubscriber(Channel channel, Thread worker, List<RtmpMessage> initialMessages, boolean aggregateMode) {
+        if (publishChannel == null && !playout) {
             logger.warn("({} | {}) [ServerStream] Fail to add subscriber. Publish channel is not exist.", streamId, streamName);
             return;
         }
 
         if (subscribers != null) {
-            subscribeLock.lock();
-            try {
-                subscribers.add(channel);
-                subscriberChIds.add(channel.getId() + "");
-            } catch (Exception e) {
-                logger.warn("({} | {} / pubChannelId: {}) [ServerStream] addSubscriber exception", streamId, streamName, publishChannel.getId(), e);
-            } finally {
-                subscribeLock.unlock();
+            subscribers.add(channel);
+            if (aggregateMode && aggregateSubscribers != null) {
+                // pending messages are handed to the others first; they are in initialMessages (gop cache) unless
+                // the cache is disabled, cleared or over its bounds, then the joiner waits for the next keyframe
+                final Aggregate aggregate = aggregatePacker.flush();
+                if (aggregate != null) {
+                    aggregateSubscribers.write(aggregate);
+                }
+                aggregateSubscribers.add(channel, worker, initialMessages);
+            } else {
+                mediaSubscribers.add(channel, worker, initialMessages);
             }
         } else {
             logger.warn("({} | {}) [ServerStream] subscribers is Null, Fail to addSubscriber (pubChannelId: {} / subChannelId:{})",
@@ -134,20 +158,16 @@ public class ServerStream {
     }
 
     public void removeSubscriber(Channel channel) {
-        if (publishChannel == null) {
+        if (publishChannel == null && !playout) {
             logger.warn("({} | {}) [ServerStream] Fail to remove subscriber. Publish channel is not exist.", streamId, streamName);
             return;
         }
 
         if (subscribers != null) {
-            subscribeLock.lock();
-            try {
-                subscribers.remove(channel);
-                subscriberChIds.remove(channel.getId() + "");
-            } catch (Exception e) {
-                logger.warn("({} | {} / pubChannelId: {}) [ServerStream] removeSubscriber exception", streamId, streamName, publishChannel.getId(), e);
-            } finally {
-                subscribeLock.unlock();
+            subscribers.remove(channel);
+            mediaSubscribers.remove(channel);
+            if (aggregateSubscribers != null) {
+                aggregateSubscribers.remove(channel);
             }
         } else {
             logger.warn("({} | {}) [ServerStream] subscribers is Null, Fail to removeSubscriber (pubChannelId: {} / subChannelId:{})",
@@ -155,6 +175,39 @@ public class ServerStream {
         }
     }
 
+    // live media, as is and (for aggregate capable subscribers) packed into aggregates
+    public void writeToSubscribers(final RtmpMessage message) {
+        if (subscribers == null) {
+            return;
+        }
+
+        if (!mediaSubscribers.isEmpty()) {
+            mediaSubscribers.write(message);
+        }
+
+        if (aggregateSubscribers == null) {
+            return;
+        }
+
+        if (aggregateSubscribers.isEmpty()) {
+            aggregatePacker.clear();
+            return;
+        }
+
+        if (AggregatePacker.isPackable(message)) {
+            final Aggregate aggregate = aggregatePacker.add(message);
+            if (aggregate != null) {
+                aggregateSubscribers.write(aggregate);
+            }
+        } else {
+            final Aggregate aggregate = aggregatePacker.flush();
+            if (aggregate != null) {
+                aggregateSubscribers.write(aggregate);
+            }
+            aggregateSubscribers.write(message);
+        }
+    }
+
     public List<RtmpMessage> getConfigMessages() {
         return configMessages;
     }
@@ -175,6 +228,27 @@ public class ServerStream {
         }
 
         configMessages.clear();
+        gopCache.clear();
+    }
+
+    public RtmpWriter getRecorder() {
+        return recorder;
+    }
+
+    public void setRecorder(RtmpWriter recorder) {
+        this.recorder = recorder;
+    }
+
+    public void closeRecorder() {
+        final RtmpWriter writer = recorder;
+        if (writer != null) {
+            recorder = null;
+            writer.close();
+        }
+    }
+
+    public GopCache getGopCache() {
+        return gopCache;
     }
 
     public Channel getPublishChannel() {
@@ -193,8 +267,16 @@ public class ServerStream {
         return streamId;
     }
 
-    public List<String> getSubscriberChIds() {
-        return subscriberChIds;
+    public List<Integer> getSubscriberChIds() {
+        return subscribers != null ? subscribers.getChannelIds() : Collections.emptyList();
+    }
+
+    public boolean isPlayout() {
+        return playout;
+    }
+
+    public void setPlayout(boolean playout) {
+        this.playout = playout;
     }
 
     public boolean isPlayStream() {
@@ -306,8 +388,11 @@ public class ServerStream {
                 "\tcreatedTime=" + getInitiationTimeFormat() + "\r\n" +
                 "\tpublishType=" + publishType + "\r\n" +
                 "\tpublishChannel=" + publishChannel + "\r\n" +
-                "\tsubscribersChannelId=" + subscriberChIds + "\r\n" +
+                "\tplayout=" + playout + "\r\n" +
+                "\tsubscribersChannelId=" + getSubscriberChIds() + "\r\n" +
                 "\tsubscribers=" + subscribers + "\r\n" +
+                "\tgopCache=" + gopCache + "\r\n" +
+                "\trecorder=" + recorder + "\r\n" +
                 "\taudioAttr=" + makeAudioAttr() + "\r\n" +
                 "\tvideoAttr=" + makeVideoAttr() + "\r\n" +
                 '}';
@@ -0,0 +1,119 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.channel.Channel;
+import rtmp.flazr.rtmp.RtmpMessage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Subscribers that receive the same live media messages, written inline or through the {@link FanOutLanes}.
+ * With lanes a subscriber joins and leaves by a task of its lane, after the media queued before,
+ * so a leave can never be overtaken by its join.
+ */
+public class SubscriberGroup {
+
+    private static final FanOutLanes fanOutLanes = FanOutLanes.getInstance();
+
+    private final SubscriberRegistry subscribers = new SubscriberRegistry();
+    private final SubscriberRegistry[] laneSubscribers; // null when the lanes are off
+    private final FanOutLanes.LaneStream[] laneStreams;
+    private final Map<Integer, Integer> laneByChannelId = new HashMap<>(); // guarded by this
+
+    public SubscriberGroup() {
+        if (fanOutLanes.isEnabled()) {
+            laneSubscribers = new SubscriberRegistry[fanOutLanes.getLaneCount()];
+            laneStreams = new FanOutLanes.LaneStream[laneSubscribers.length];
+            for (int i = 0; i < laneSubscribers.length; i++) {
+                laneSubscribers[i] = new SubscriberRegistry();
+                laneStreams[i] = new FanOutLanes.LaneStream();
+            }
+        } else {
+            laneSubscribers = null;
+            laneStreams = null;
+        }
+    }
+
+    /**
+     * @param worker the subscriber's I/O worker thread, its lane
+     * @param initialMessages (e.g. the gop cache) are written before the first live media message,
+     *                        without a keyframe in them the subscriber gets no video until the next one
+     */
+    public void add(final Channel channel, final Thread worker, final List<RtmpMessage> initialMessages) {
+        final boolean waitForKeyFrame = !startsWithKeyFrame(initialMessages);
+        if (laneSubscribers == null) {
+            for (RtmpMessage message : initialMessages) {
+                channel.write(message);
+            }
+            subscribers.add(channel, waitForKeyFrame);
+            return;
+        }
+
+        // joined inside the lane: media tasks queued before this one do not include the channel
+        final int lane = fanOutLanes.getLaneOfWorker(worker);
+        synchronized (this) {
+            if (!subscribers.add(channel)) {
+                return;
+            }
+            laneByChannelId.put(channel.getId(), lane);
+            fanOutLanes.execute(lane, () -> {
+                for (RtmpMessage message : initialMessages) {
+                    channel.write(message);
+                }
+                laneSubscribers[lane].add(channel, waitForKeyFrame);
+            });
+        }
+        channel.getCloseFuture().addListener(future -> remove(channel)); // the lane's registry drops it by itself
+    }
+
+    public void remove(final Channel channel) {
+        if (laneSubscribers == null) {
+            subscribers.remove(channel);
+            return;
+        }
+
+        synchronized (this) {
+            subscribers.remove(channel);
+            final Integer lane = laneByChannelId.remove(channel.getId());
+            if (lane != null) {
+                fanOutLanes.execute(lane, () -> laneSubscribers[lane].remove(channel));
+            }
+        }
+    }
+
+    // inline, or one task per lane that has subscribers
+    public void write(final RtmpMessage message) {
+        if (laneSubscribers == null) {
+            subscribers.write(message);
+            return;
+        }
+
+        for (int i = 0; i < laneSubscribers.length; i++) {
+            final SubscriberRegistry laneSubscriber = laneSubscribers[i];
+            if (!laneSubscriber.isEmpty()) {
+                fanOutLanes.execute(i, laneStreams[i], message, () -> laneSubscriber.write(message));
+            }
+        }
+    }
+
+    // whether the first video is a keyframe
+    private static boolean startsWithKeyFrame(final List<RtmpMessage> messages) {
+        for (RtmpMessage message : messages) {
+            final WriteQueueHandler.Kind kind = WriteQueueHandler.kindOf(message);
+            if (kind != WriteQueueHandler.Kind.OTHER) {
+                return kind == WriteQueueHandler.Kind.KEY_VIDEO;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return subscribers.isEmpty();
+    }
+
+    public int size() {
+        return subscribers.size();
+    }
+
+}
@@ -0,0 +1,192 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFutureListener;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Aggregate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Subscriber channels of a stream kept in a slot array.
+ * Joins and leaves take a writer lock and are O(1) amortized (free slot stack + channel id index),
+ * {@link #write(Object)} reads the published array without a lock and without allocating, up to the highest
+ * slot in use. Once most slots are free the live subscribers are copied into a smaller array (compacted);
+ * a reader still on the previous array skips the subscribers removed meanwhile (flagged on removal)
+ * and may miss a join made meanwhile, which gets the next message.
+ * A subscriber added to wait for a keyframe gets no video until the next one (audio and other messages go on,
+ * also the audio of an aggregate, without its video tags).
+ * A channel is removed automatically when it is closed.
+ */
+public class SubscriberRegistry {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Object NONE = new Object();
+
+    private static final class Subscriber {
+        private final Channel channel;
+        private volatile boolean removed;
+        private volatile boolean waitingForKeyFrame; // then only changed by write
+
+        private Subscriber(Channel channel, boolean waitingForKeyFrame) {
+            this.channel = channel;
+            this.waitingForKeyFrame = waitingForKeyFrame;
+        }
+    }
+
+    // written in this order (slots, then usedSlotCount), read in the opposite one
+    private volatile AtomicReferenceArray<Subscriber> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile int usedSlotCount; // slots ever handed out since the last compaction, readers stop there
+    private volatile int size;
+
+    // guarded by this
+    private final Map<Integer, Integer> slotByChannelId = new HashMap<>();
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeSlotCount;
+
+    private final ChannelFutureListener remover = future -> remove(future.getChannel());
+
+    public boolean add(final Channel channel) {
+        return add(channel, false);
+    }
+
+    public boolean add(final Channel channel, final boolean waitForKeyFrame) {
+        synchronized (this) {
+            if (slotByChannelId.containsKey(channel.getId())) {
+                return false;
+            }
+
+            final Subscriber subscriber = new Subscriber(channel, waitForKeyFrame);
+            final int slot;
+            if (freeSlotCount > 0) {
+                slot = freeSlots[--freeSlotCount];
+                slots.set(slot, subscriber);
+            } else {
+                if (usedSlotCount == slots.length()) {
+                    resize(slots.length() * 2);
+                }
+                slot = usedSlotCount;
+                slots.set(slot, subscriber);
+                usedSlotCount = slot + 1;
+            }
+
+            slotByChannelId.put(channel.getId(), slot);
+            size = slotByChannelId.size();
+        }
+
+        channel.getCloseFuture().addListener(remover);
+        return true;
+    }
+
+    public boolean remove(final Channel channel) {
+        synchronized (this) {
+            final Integer slot = slotByChannelId.remove(channel.getId());
+            if (slot == null) {
+                return false;
+            }
+
+            slots.get(slot).removed = true; // for readers on an older array too
+            slots.set(slot, null);
+            size = slotByChannelId.size();
+
+            if (usedSlotCount > INITIAL_CAPACITY && size < usedSlotCount / 4) {
+                resize(Math.max(INITIAL_CAPACITY, size * 2));
+            } else {
+                if (freeSlotCount == freeSlots.length) {
+                    final int[] newFreeSlots = new int[freeSlots.length * 2];
+                    System.arraycopy(freeSlots, 0, newFreeSlots, 0, freeSlotCount);
+                    freeSlots = newFreeSlots;
+                }
+                freeSlots[freeSlotCount++] = slot;
+            }
+        }
+
+        channel.getCloseFuture().removeListener(remover);
+        return true;
+    }
+
+    // the live subscribers packed at the start of a new array (growing or compacting)
+    private void resize(final int capacity) {
+        final AtomicReferenceArray<Subscriber> oldSlots = slots;
+        final AtomicReferenceArray<Subscriber> newSlots = new AtomicReferenceArray<>(capacity);
+        int count = 0;
+        for (int i = 0; i < usedSlotCount; i++) {
+            final Subscriber subscriber = oldSlots.get(i);
+            if (subscriber != null) {
+                newSlots.set(count, subscriber);
+                slotByChannelId.put(subscriber.channel.getId(), count);
+                count++;
+            }
+        }
+        freeSlotCount = 0;
+        slots = newSlots;
+        usedSlotCount = count;
+    }
+
+    // from one thread at a time (the publisher's or a fan out lane)
+    public void write(final Object message) {
+        final int count = usedSlotCount;
+        final AtomicReferenceArray<Subscriber> curSlots = slots;
+        final int end = Math.min(count, curSlots.length());
+        WriteQueueHandler.Kind kind = null; // only needed for a subscriber waiting for a keyframe
+        Object withoutVideo = null; // the audio of a non-key aggregate for such subscribers, NONE when it has none
+        for (int i = 0; i < end; i++) {
+            final Subscriber subscriber = curSlots.get(i);
+            if (subscriber == null || subscriber.removed) {
+                continue;
+            }
+            if (subscriber.waitingForKeyFrame) {
+                if (kind == null) {
+                    kind = message instanceof RtmpMessage ? WriteQueueHandler.kindOf((RtmpMessage) message) : WriteQueueHandler.Kind.OTHER;
+                }
+                if (kind == WriteQueueHandler.Kind.VIDEO) {
+                    if (withoutVideo == null) {
+                        final Aggregate rest = message instanceof Aggregate ? ((Aggregate) message).withoutVideo() : null;
+                        withoutVideo = rest == null ? NONE : rest;
+                    }
+                    if (withoutVideo != NONE) {
+                        subscriber.channel.write(withoutVideo);
+                    }
+                    continue;
+                }
+                if (kind == WriteQueueHandler.Kind.KEY_VIDEO) {
+                    subscriber.waitingForKeyFrame = false;
+                }
+            }
+            subscriber.channel.write(message);
+        }
+    }
+
+    public boolean contains(final Channel channel) {
+        synchronized (this) {
+            return slotByChannelId.containsKey(channel.getId());
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public List<Integer> getChannelIds() {
+        synchronized (this) {
+            return new ArrayList<>(slotByChannelId.keySet());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SubscriberRegistry{" +
+                "size=" + size +
+                ", channelIds=" + getChannelIds() +
+                '}';
+    }
+
+}
@@ -0,0 +1,111 @@
+package rtmp.flazr.rtmp.server;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpConfig;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives all {@link VodPlayer}s: one timing wheel thread fires each player's next run when its next message
+ * is due, a pool runs it. A player has at most one run pending, and a run reads the file on the pool thread:
+ * a slow read holds up that thread, the others keep taking the runs due. The pool is sized by the player count,
+ * {@code VOD_THREADS} plus one for every {@code VOD_PLAYERS_PER_THREAD} players, up to {@code VOD_MAX_THREADS},
+ * so the threads grow slowly with the viewers while a few slow reads never stall every session.
+ */
+public class VodEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(VodEngine.class);
+    private static VodEngine vodEngine = null;
+
+    private static final long TIMER_TICK_MS = 10;
+
+    private final HashedWheelTimer timer;
+    private final ThreadPoolExecutor executor;
+    private final AtomicInteger playerCount = new AtomicInteger(0);
+    private final int minThreads;
+    private final int maxThreads;
+    private final int playersPerThread;
+
+    private VodEngine(int minThreads, int maxThreads, int playersPerThread) {
+        this.minThreads = Math.max(minThreads, 1);
+        this.maxThreads = Math.max(maxThreads, this.minThreads);
+        this.playersPerThread = Math.max(playersPerThread, 1);
+        timer = new HashedWheelTimer(
+                new BasicThreadFactory
+                        .Builder()
+                        .namingPattern("RtmpVodTimer")
+                        .daemon(true)
+                        .build(),
+                TIMER_TICK_MS, TimeUnit.MILLISECONDS
+        );
+        // unbounded queue: the core size is the thread count, idle threads over it end
+        executor = new ThreadPoolExecutor(this.minThreads, this.maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new BasicThreadFactory
+                        .Builder()
+                        .namingPattern("RtmpVod-%d")
+                        .daemon(true)
+                        .build()
+        );
+    }
+
+    public static synchronized VodEngine getInstance() {
+        if (vodEngine == null) {
+            vodEngine = new VodEngine(RtmpConfig.VOD_THREADS, RtmpConfig.VOD_MAX_THREADS, RtmpConfig.VOD_PLAYERS_PER_THREAD);
+        }
+
+        return vodEngine;
+    }
+
+    // runs the task on the pool after the delay (right away when not positive)
+    public void schedule(final Runnable task, final long delayMillis) {
+        if (delayMillis <= 0) {
+            execute(task);
+        } else {
+            timer.newTimeout(timeout -> execute(task), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void execute(final Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("[VodEngine] Stopped, dropping a player run.");
+        }
+    }
+
+    void addPlayer() {
+        playerCount.incrementAndGet();
+        resize();
+    }
+
+    void removePlayer() {
+        playerCount.decrementAndGet();
+        resize();
+    }
+
+    private synchronized void resize() {
+        final int threadCount = Math.min(minThreads + playerCount.get() / playersPerThread, maxThreads);
+        if (threadCount != executor.getCorePoolSize()) {
+            executor.setCorePoolSize(threadCount);
+            logger.debug("[VodEngine] {} threads for {} players.", threadCount, playerCount.get());
+        }
+    }
+
+    public int getPlayerCount() {
+        return playerCount.get();
+    }
+
+    public void stop() {
+        timer.stop();
+        executor.shutdownNow();
+    }
+
+}
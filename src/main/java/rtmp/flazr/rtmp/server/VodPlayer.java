@@ -0,0 +1,226 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.RtmpReader;
+import rtmp.flazr.rtmp.message.Command;
+import rtmp.flazr.rtmp.message.Control;
+import rtmp.flazr.rtmp.message.Metadata;
+
+/**
+ * Plays a file ({@link RtmpReader}) to one subscriber at real time, run by the {@link VodEngine}.
+ * A run writes the messages due on the media clock (position at start / seek / unpause + elapsed time)
+ * plus the client's buffer length, so the client's buffer is filled at once and then kept full,
+ * and is scheduled again for when the next message is due.
+ * While the channel is unwritable (or its write queue is filling up) nothing is written and the clock
+ * is held back to the last message written, the client's playback waited as well.
+ * Commands come from the subscriber's I/O thread and runs from the engine's pool, so both hold the monitor.
+ */
+public class VodPlayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(VodPlayer.class);
+
+    private static final int MIN_LEAD_TIME = 500; // millis written ahead of the clock
+    private static final int MAX_LEAD_TIME = 10000; // millis, however long the client's buffer is
+    private static final int MAX_RUN_MESSAGES = 256; // then the run yields to the other players
+    private static final int MAX_RUN_INTERVAL = 250; // millis
+    private static final int HOLD_INTERVAL = 20; // millis between writability checks
+
+    private final VodEngine engine = VodEngine.getInstance();
+    private final Channel channel;
+    private final RtmpReader reader;
+    private final int streamId;
+    private final String playName;
+    private final String clientId;
+    private final WriteQueueHandler writeQueue; // null when the pipeline has none
+
+    private RtmpMessage pending; // read, not due yet
+    private long clockStartNanos;
+    private long clockStartTime; // media time at clock start, millis
+    private long lastTime; // of the last message written
+    private int bufferLength; // the client's, millis
+    private boolean scheduled; // a run is pending
+    private boolean held;
+    private boolean paused;
+    private boolean finished;
+    private long bytesWritten;
+    private long holdCount;
+
+    public VodPlayer(Channel channel, RtmpReader reader, int streamId, String playName, String clientId) {
+        this.channel = channel;
+        this.reader = reader;
+        this.streamId = streamId;
+        this.playName = playName;
+        this.clientId = clientId;
+        this.writeQueue = channel.getPipeline().get(WriteQueueHandler.class);
+    }
+
+    public synchronized void start(final long playStart) {
+        engine.addPlayer();
+        for (RtmpMessage message : reader.getStartMessages()) {
+            write(message);
+        }
+        startClock(reader.seek(playStart));
+        schedule(0);
+        logger.debug("({}) [VodPlayer] Start playing [{}] at {} ms (buffer {} ms)", clientId, playName, clockStartTime, bufferLength);
+    }
+
+    // set buffer length, before or while playing
+    public synchronized void setBufferLength(final int bufferLength) {
+        this.bufferLength = bufferLength;
+    }
+
+    private synchronized void run() {
+        scheduled = false;
+        if (finished || paused) {
+            return;
+        }
+        if (!channel.isOpen()) {
+            stop();
+            return;
+        }
+
+        if (isHeld()) {
+            hold();
+            return;
+        }
+        if (held) {
+            held = false;
+            if (getClockTime() > lastTime) {
+                startClock(lastTime);
+            }
+        }
+
+        final long due = getClockTime() + getLeadTime();
+        for (int i = 0; i < MAX_RUN_MESSAGES; i++) {
+            if (pending == null) {
+                if (!reader.hasNext()) {
+                    complete();
+                    return;
+                }
+                pending = reader.next();
+            }
+            final long time = pending.getHeader().getTime();
+            if (time > due) {
+                schedule(Math.min(time - due, MAX_RUN_INTERVAL));
+                return;
+            }
+            write(pending);
+            pending = null;
+            lastTime = time;
+            if (isHeld()) {
+                hold();
+                return;
+            }
+        }
+        schedule(0);
+    }
+
+    private boolean isHeld() {
+        return !channel.isWritable()
+                || (writeQueue != null && writeQueue.getQueuedBytes() > RtmpConfig.WRITE_QUEUE_LOW_WATERMARK);
+    }
+
+    private void hold() {
+        if (!held) {
+            held = true;
+            holdCount++;
+        }
+        schedule(HOLD_INTERVAL);
+    }
+
+    private int getLeadTime() {
+        return Math.min(Math.max(bufferLength, MIN_LEAD_TIME), MAX_LEAD_TIME);
+    }
+
+    public synchronized void seek(final long time) {
+        if (finished) {
+            return;
+        }
+        pending = null;
+        final long position = reader.seek(time);
+        write(Command.seekNotify(streamId, (int) position, playName, clientId));
+        startClock(position);
+        if (!scheduled && !paused) {
+            schedule(0);
+        }
+        logger.debug("({}) [VodPlayer] Seek [{}] to {} ms, at {} ms", clientId, playName, time, position);
+    }
+
+    // unpausing plays from the given time (the client's position)
+    public synchronized void pause(final boolean pause, final long time) {
+        if (finished) {
+            return;
+        }
+        if (pause) {
+            paused = true;
+            write(Command.pauseNotify(playName, clientId));
+        } else {
+            pending = null;
+            startClock(reader.seek(time));
+            paused = false;
+            write(Command.unpauseNotify(playName, clientId));
+            if (!scheduled) {
+                schedule(0);
+            }
+        }
+        logger.debug("({}) [VodPlayer] {} [{}] at {} ms", clientId, pause ? "Pause" : "Unpause", playName, time);
+    }
+
+    private void complete() {
+        write(Control.streamEof(streamId));
+        write(Metadata.onPlayStatus(reader.getTimePosition() / 1000.0, bytesWritten));
+        write(Command.playStop(playName, clientId));
+        logger.info("({}) [VodPlayer] Complete playing [{}] ({})", clientId, playName, this);
+        stop();
+    }
+
+    public synchronized void stop() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        reader.close();
+        engine.removePlayer();
+    }
+
+    private void schedule(final long delayMillis) {
+        scheduled = true;
+        engine.schedule(this::run, delayMillis);
+    }
+
+    private void startClock(final long time) {
+        clockStartTime = time;
+        clockStartNanos = System.nanoTime();
+        lastTime = time;
+    }
+
+    private long getClockTime() {
+        return clockStartTime + (System.nanoTime() - clockStartNanos) / 1000000;
+    }
+
+    private void write(final RtmpMessage message) {
+        if (message.getHeader().getChannelId() > 2) {
+            message.getHeader().setStreamId(streamId);
+        }
+        bytesWritten += message.getHeader().getSize();
+        channel.write(message);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "VodPlayer{" +
+                "playName='" + playName + '\'' +
+                ", bufferLength=" + bufferLength +
+                ", lastTime=" + lastTime +
+                ", bytesWritten=" + bytesWritten +
+                ", holdCount=" + holdCount +
+                ", paused=" + paused +
+                ", finished=" + finished +
+                '}';
+    }
+
+}
@@ -0,0 +1,225 @@
+package rtmp.flazr.rtmp.server;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.ChunkStreamTable;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpHeader;
+import rtmp.flazr.rtmp.message.MessageType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects small encoded media messages (e.g. audio) of one connection into a single socket write,
+ * flushed when {@code maxBytes} are pending or {@code maxDelay} millis after the first pending message.
+ * A message of at least {@code maxBytes} flushes what is pending and is written as is, and so is any message
+ * that is not media (control, commands and status replies are not delayed). The message type is read from
+ * the chunk headers the encoder wrote, remembered per chunk stream for the headers that leave it out.
+ * The pending buffers are written as one composite buffer (not copied here, netty copies it into its pooled
+ * send buffer), the futures of coalesced messages complete with that write.
+ * Deadlines go on a timing wheel shared by all connections, created with the first coalescer, and are never
+ * cancelled: one that fires after its batch was flushed finds a newer batch number and does nothing.
+ */
+public class WriteCoalescer extends SimpleChannelHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    private static final long TIMER_TICK_MS = 1;
+
+    // one wheel thread for all connections, scheduling a deadline takes no lock shared with the others
+    private static HashedWheelTimer sharedTimer = null;
+
+    private final int maxBytes;
+    private final int maxDelay; // millis
+    private final HashedWheelTimer timer = getTimer();
+
+    private final ChunkStreamTable<Boolean> mediaChunkStreams = new ChunkStreamTable<>(); // by the last header with a type
+    private List<ChannelBuffer> pending = new ArrayList<>();
+    private int pendingBytes;
+    private List<ChannelFuture> pendingFutures = new ArrayList<>();
+    private long pendingSince;
+    private long batch; // number of the pending batch, a deadline only flushes its own
+
+    private volatile long flushCount;
+    private volatile long coalescedCount;
+    private volatile long totalDelay; // nanos
+    private volatile long maxFlushDelay; // nanos
+
+    public WriteCoalescer() {
+        this(RtmpConfig.WRITE_COALESCE_BYTES, RtmpConfig.WRITE_COALESCE_DELAY);
+    }
+
+    public WriteCoalescer(int maxBytes, int maxDelay) {
+        this.maxBytes = maxBytes;
+        this.maxDelay = maxDelay;
+    }
+
+    // sent downstream under the monitor to keep the order of flushes; netty 3 only queues writes
+    // coming from other threads, so the I/O thread is never waited on here
+    @Override
+    public void writeRequested(final ChannelHandlerContext ctx, final MessageEvent e) {
+        if (!(e.getMessage() instanceof ChannelBuffer)) {
+            ctx.sendDownstream(e);
+            return;
+        }
+
+        final ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+        synchronized (this) {
+            if (buffer.readableBytes() >= maxBytes || !isMedia(buffer)) {
+                flush(ctx);
+                ctx.sendDownstream(e);
+                return;
+            }
+
+            if (pendingBytes + buffer.readableBytes() > maxBytes) {
+                flush(ctx);
+            }
+
+            if (pending.isEmpty()) {
+                pendingSince = System.nanoTime();
+                final long deadlineBatch = ++batch;
+                timer.newTimeout(timeout -> onDeadline(ctx, deadlineBatch), maxDelay, TimeUnit.MILLISECONDS);
+            }
+
+            pending.add(buffer); // kept until the write is done, like the future that frees it
+            pendingBytes += buffer.readableBytes();
+            pendingFutures.add(e.getFuture());
+            coalescedCount++;
+
+            if (pendingBytes >= maxBytes) {
+                flush(ctx);
+            }
+        }
+    }
+
+    private static synchronized HashedWheelTimer getTimer() {
+        if (sharedTimer == null) {
+            sharedTimer = new HashedWheelTimer(
+                    new BasicThreadFactory
+                            .Builder()
+                            .namingPattern("RtmpWriteCoalescer")
+                            .daemon(true)
+                            .build(),
+                    TIMER_TICK_MS, TimeUnit.MILLISECONDS
+            );
+        }
+
+        return sharedTimer;
+    }
+
+    // the encoder writes a message as one buffer, starting with the header of its first chunk
+    private boolean isMedia(final ChannelBuffer buffer) {
+        if (!buffer.readable()) {
+            return false;
+        }
+        final int index = buffer.readerIndex();
+        final int first = buffer.getUnsignedByte(index);
+        final int headerType = first >> 6;
+        int channelId = first & 0x3f;
+        int basicSize = 1;
+        if (channelId == 0 && buffer.readableBytes() >= 2) {
+            channelId = 64 + buffer.getUnsignedByte(index + 1);
+            basicSize = 2;
+        } else if (channelId == 1 && buffer.readableBytes() >= 3) {
+            channelId = 64 + buffer.getUnsignedByte(index + 1) + (buffer.getUnsignedByte(index + 2) << 8);
+            basicSize = 3;
+        }
+
+        // LARGE and MEDIUM headers carry the type after the time (3 bytes) and the size (3 bytes)
+        if (headerType <= RtmpHeader.Type.MEDIUM.intValue() && buffer.readableBytes() > basicSize + 6) {
+            final int type = buffer.getUnsignedByte(index + basicSize + 6);
+            final boolean media = type == MessageType.AUDIO.intValue() || type == MessageType.VIDEO.intValue()
+                    || type == MessageType.AGGREGATE.intValue();
+            mediaChunkStreams.put(channelId, media);
+            return media;
+        }
+        return Boolean.TRUE.equals(mediaChunkStreams.get(channelId));
+    }
+
+    private synchronized void onDeadline(final ChannelHandlerContext ctx, final long deadlineBatch) {
+        if (deadlineBatch == batch) {
+            flush(ctx);
+        }
+    }
+
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            flush(ctx); // fails the pending futures
+        }
+
+        if (flushCount > 0) {
+            logger.info("({}) [WriteCoalescer] closed. ({})", ctx.getChannel().getId(), this);
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    private void flush(final ChannelHandlerContext ctx) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        final long delay = System.nanoTime() - pendingSince;
+        totalDelay += delay;
+        if (delay > maxFlushDelay) {
+            maxFlushDelay = delay;
+        }
+        flushCount++;
+
+        final List<ChannelFuture> futures = pendingFutures;
+        final ChannelFuture future = Channels.future(ctx.getChannel());
+        future.addListener(f -> {
+            for (ChannelFuture member : futures) {
+                if (f.isSuccess()) {
+                    member.setSuccess();
+                } else {
+                    member.setFailure(f.getCause());
+                }
+            }
+        });
+
+        final ChannelBuffer out = ChannelBuffers.wrappedBuffer(pending.toArray(new ChannelBuffer[0]));
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        pendingFutures = new ArrayList<>();
+        Channels.write(ctx, future, out);
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    // added latency of coalesced messages, measured from the first pending message of a flush
+    public long getAverageDelay() {
+        final long count = flushCount;
+        return count > 0 ? totalDelay / count : 0;
+    }
+
+    public long getMaxDelay() {
+        return maxFlushDelay;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteCoalescer{" +
+                "flushCount=" + flushCount +
+                ", coalescedCount=" + coalescedCount +
+                ", averageDelay=" + TimeUnit.NANOSECONDS.toMicros(getAverageDelay()) + "us" +
+                ", maxDelay=" + TimeUnit.NANOSECONDS.toMicros(maxFlushDelay) + "us" +
+                ", maxBytes=" + maxBytes +
+                ", maxDelayMs=" + maxDelay +
+                '}';
+    }
+
+}
@@ -0,0 +1,267 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.FlowControl;
+import rtmp.flazr.rtmp.RtmpConfig;
+import rtmp.flazr.rtmp.RtmpHeader;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Aggregate;
+import rtmp.flazr.rtmp.message.DataMessage;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bounded outbound queue of one connection, placed above the encoder so that messages are dropped
+ * before they are chunked (the encoder's header compression never sees a dropped message).
+ * Messages are passed on only while the channel is writable. Over the high watermark the queued
+ * non-key video is dropped and video is skipped until a keyframe arrives with the queue under the
+ * low watermark; if that is not enough the queued keyframes (whole GOPs) go too. Audio, config and
+ * control messages are never dropped (nor the audio of an aggregate, which loses its video tags only),
+ * a connection whose queue still grows past the max is closed.
+ * With a {@link FlowControl} (pacing) messages are also held while the peer's unacknowledged bytes
+ * fill the bandwidth it set, the peer's acknowledgements resume the queue.
+ */
+public class WriteQueueHandler extends SimpleChannelHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteQueueHandler.class);
+
+    enum Kind { OTHER, VIDEO, KEY_VIDEO } // what the drop policy may drop, also used by the fan out lanes
+
+    private static final class Entry {
+        private MessageEvent event; // replaced by what is left of an aggregate whose video was dropped
+        private int size;
+        private Kind kind;
+
+        private Entry(MessageEvent event, int size, Kind kind) {
+            this.event = event;
+            this.size = size;
+            this.kind = kind;
+        }
+    }
+
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int maxBytes;
+    private final FlowControl flowControl; // null = no pacing
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private long queuedBytes;
+    private boolean skipVideo;
+    private boolean draining;
+    private boolean closed;
+
+    private volatile long droppedFrames;
+    private volatile long droppedKeyFrames;
+    private volatile long droppedBytes;
+
+    public WriteQueueHandler() {
+        this(null);
+    }
+
+    public WriteQueueHandler(FlowControl flowControl) {
+        this(RtmpConfig.WRITE_QUEUE_HIGH_WATERMARK, RtmpConfig.WRITE_QUEUE_LOW_WATERMARK, RtmpConfig.WRITE_QUEUE_MAX_BYTES, flowControl);
+    }
+
+    public WriteQueueHandler(int highWatermark, int lowWatermark, int maxBytes, FlowControl flowControl) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.maxBytes = maxBytes;
+        this.flowControl = flowControl;
+    }
+
+    @Override
+    public void writeRequested(final ChannelHandlerContext ctx, final MessageEvent e) {
+        if (!(e.getMessage() instanceof RtmpMessage)) {
+            ctx.sendDownstream(e);
+            return;
+        }
+
+        final RtmpMessage message = (RtmpMessage) e.getMessage();
+        final Entry entry = new Entry(e, message.getHeader().getSize(), kindOf(message));
+        boolean overflow = false;
+
+        synchronized (this) {
+            if (closed) {
+                e.getFuture().setFailure(new ClosedChannelException());
+                return;
+            }
+
+            if (entry.kind != Kind.OTHER && skipVideo) {
+                if (entry.kind == Kind.KEY_VIDEO && queuedBytes <= lowWatermark) {
+                    skipVideo = false;
+                } else if (!dropVideo(entry)) {
+                    return;
+                }
+            }
+
+            queue.add(entry);
+            queuedBytes += entry.size;
+
+            if (queuedBytes > highWatermark) {
+                skipVideo = true;
+                dropQueuedVideo(false);
+                if (queuedBytes > highWatermark) {
+                    dropQueuedVideo(true);
+                }
+                overflow = queuedBytes > maxBytes;
+            }
+        }
+
+        if (overflow) {
+            logger.warn("({}) [WriteQueue] Queue is over the max even after dropping video, closing. ({})",
+                    ctx.getChannel().getId(), this);
+            ctx.getChannel().close();
+            return;
+        }
+
+        drain(ctx);
+    }
+
+    @Override
+    public void channelInterestChanged(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        drain(ctx);
+        super.channelInterestChanged(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        synchronized (this) {
+            closed = true;
+            for (Entry entry : queue) {
+                entry.event.getFuture().setFailure(new ClosedChannelException());
+            }
+            queue.clear();
+            queuedBytes = 0;
+        }
+
+        if (droppedFrames > 0) {
+            logger.info("({}) [WriteQueue] closed. ({})", ctx.getChannel().getId(), this);
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    // the peer acknowledged our output, the window may be open again
+    public void resume(final ChannelPipeline pipeline) {
+        if (flowControl != null) {
+            drain(pipeline.getContext(this));
+        }
+    }
+
+    // one thread at a time passes queued messages on, outside the lock (the socket write may call back in)
+    private void drain(final ChannelHandlerContext ctx) {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        while (true) {
+            final Entry entry;
+            synchronized (this) {
+                // checked under the lock: a writability change (or an ack) after this point calls drain() again and finds draining off
+                if (queue.isEmpty() || !ctx.getChannel().isWritable() || (flowControl != null && flowControl.isWindowFull())) {
+                    draining = false;
+                    return;
+                }
+                entry = queue.poll();
+                queuedBytes -= entry.size;
+            }
+            ctx.sendDownstream(entry.event);
+        }
+    }
+
+    private void dropQueuedVideo(final boolean withKeyFrames) {
+        final Iterator<Entry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.kind == Kind.VIDEO || (withKeyFrames && entry.kind == Kind.KEY_VIDEO)) {
+                final int size = entry.size;
+                if (dropVideo(entry)) {
+                    queuedBytes -= size - entry.size;
+                } else {
+                    iterator.remove();
+                    queuedBytes -= size;
+                }
+            }
+        }
+    }
+
+    /**
+     * drops the video of the entry: all of a video message, or only the video tags of an aggregate, whose other
+     * tags (audio, script data) stay in the entry as an aggregate of their own written with the same future
+     * @return whether something is left to write
+     */
+    private boolean dropVideo(final Entry entry) {
+        final MessageEvent e = entry.event;
+        final Aggregate rest = e.getMessage() instanceof Aggregate ? ((Aggregate) e.getMessage()).withoutVideo() : null;
+        if (entry.kind == Kind.KEY_VIDEO) {
+            droppedKeyFrames++;
+        }
+        droppedFrames++;
+        if (rest == null) {
+            droppedBytes += entry.size;
+            e.getFuture().setSuccess(); // dropped on purpose, not a write failure
+            return false;
+        }
+
+        final int restSize = rest.getHeader().getSize();
+        droppedBytes += entry.size - restSize;
+        entry.event = new DownstreamMessageEvent(e.getChannel(), e.getFuture(), rest, e.getRemoteAddress());
+        entry.size = restSize;
+        entry.kind = Kind.OTHER;
+        return true;
+    }
+
+    // an aggregate by its first video tag, which is its first tag when it holds a keyframe (AggregatePacker);
+    // only its video tags are dropped
+    static Kind kindOf(final RtmpMessage message) {
+        final RtmpHeader header = message.getHeader();
+        if (header.isAggregate() && message instanceof Aggregate) {
+            final int flags = ((Aggregate) message).getFirstVideoFlags();
+            if (flags < 0) {
+                return Kind.OTHER;
+            }
+            return (flags & 0xf0) == 0x10 ? Kind.KEY_VIDEO : Kind.VIDEO;
+        }
+        if (!header.isVideo() || !(message instanceof Video) || ((DataMessage) message).isConfig()) {
+            return Kind.OTHER;
+        }
+        return ((Video) message).isKeyFrame() ? Kind.KEY_VIDEO : Kind.VIDEO;
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getDroppedKeyFrames() {
+        return droppedKeyFrames;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteQueueHandler{" +
+                "queuedBytes=" + queuedBytes +
+                ", droppedFrames=" + droppedFrames +
+                ", droppedKeyFrames=" + droppedKeyFrames +
+                ", droppedBytes=" + droppedBytes +
+                ", highWatermark=" + highWatermark +
+                ", lowWatermark=" + lowWatermark +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+
+}
@@ -2,12 +2,18 @@ package service.monitor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rtmp.flazr.io.flv.FlvBlockCache;
+import rtmp.flazr.rtmp.server.FanOutLanes;
+import rtmp.flazr.rtmp.server.ServerStream;
 import service.resource.ResourceManager;
 import service.resource.StreamIdManager;
 import service.scheduler.job.Job;
 import service.scheduler.job.JobContainer;
 import service.system.SystemManager;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author jamesj
  * @class public class ServiceHaHandler extends TaskUnit
@@ -32,11 +38,44 @@ public class HaHandler extends JobContainer {
             String cpuUsageStr = systemManager.getCpuUsage();
             String memoryUsageStr = systemManager.getHeapMemoryUsage();
 
-            logger.debug("| cpu=[{}], mem=[{}], thread=[{}] | stream=[{}], idle_id_count=[{}]",
+            final FanOutLanes fanOutLanes = FanOutLanes.getInstance();
+            final FlvBlockCache flvBlockCache = FlvBlockCache.getInstance();
+            logger.debug("| cpu=[{}], mem=[{}], thread=[{}] | stream=[{}], idle_id_count=[{}], gop_cache_bytes=[{}]"
+                            + " | flv_cache_bytes=[{}], flv_cache_hit_ratio=[{}], flv_cache_hits=[{}], flv_cache_misses=[{}]"
+                            + " | fanout_dropped_frames=[{}], fanout_dropped_bytes=[{}]",
                     cpuUsageStr, memoryUsageStr, Thread.activeCount(),
                     ResourceManager.getInstance().getStreamSize(),
-                    StreamIdManager.getInstance().getStreamIdSize()
+                    StreamIdManager.getInstance().getStreamIdSize(),
+                    ResourceManager.getInstance().getGopCacheBytes(),
+                    flvBlockCache.getResidentBytes(), String.format("%.3f", flvBlockCache.getHitRatio()),
+                    flvBlockCache.getHits(), flvBlockCache.getMisses(),
+                    fanOutLanes.getDroppedFrames(), fanOutLanes.getDroppedBytes()
             );
+
+            // the scheduling delay of the jobs (due -> started), and how far their intervals were off
+            long maxJobLatency = 0;
+            long maxJobJitter = 0;
+            final List<Job> jobs = getJob().getScheduleManager().getScheduledJobs();
+            for (Job job : jobs) {
+                maxJobLatency = Math.max(maxJobLatency, job.getMaxLatency());
+                maxJobJitter = Math.max(maxJobJitter, job.getMaxJitter());
+            }
+            logger.debug("| job=[{}], job_max_latency_us=[{}], job_max_jitter_us=[{}]",
+                    jobs.size(), TimeUnit.NANOSECONDS.toMicros(maxJobLatency), TimeUnit.NANOSECONDS.toMicros(maxJobJitter));
+
+            if (logger.isTraceEnabled()) {
+                for (Job job : jobs) {
+                    logger.trace("| {}", job);
+                }
+                if (fanOutLanes.isEnabled()) {
+                    logger.trace("| {}", fanOutLanes);
+                }
+                for (String appName : ResourceManager.getInstance().getAppNames()) {
+                    for (ServerStream stream : ResourceManager.getInstance().getServerApp(appName).getStreams()) {
+                        logger.trace("| [{}/{}] {}", appName, stream.getStreamName(), stream.getGopCache());
+                    }
+                }
+            }
         });
     }
 
@@ -2,7 +2,9 @@ package service.resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rtmp.flazr.rtmp.server.GopCache;
 import rtmp.flazr.rtmp.server.ServerApplication;
+import rtmp.flazr.rtmp.server.ServerStream;
 import rtmp.flazr.util.Utils;
 
 import java.util.ArrayList;
@@ -78,6 +80,18 @@ public class ResourceManager {
         }
         return size;
     }
+
+    // memory held by the gop caches of all streams (payload + encoded copies)
+    public long getGopCacheBytes() {
+        long bytes = 0;
+        for(ServerApplication app : serverAppMap.values()) {
+            for(ServerStream stream : app.getStreams()) {
+                final GopCache gopCache = stream.getGopCache();
+                bytes += gopCache.getCachedBytes() + gopCache.getEncodedBytes();
+            }
+        }
+        return bytes;
+    }
     ////////////////////////////////////////////////////////////
 
 
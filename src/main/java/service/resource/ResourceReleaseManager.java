@@ -2,13 +2,13 @@ package service.resource;
 
 import config.ConfigManager;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.group.ChannelGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rtmp.RtmpManager;
 import rtmp.flazr.rtmp.message.Command;
 import rtmp.flazr.rtmp.server.ServerApplication;
 import rtmp.flazr.rtmp.server.ServerStream;
+import rtmp.flazr.rtmp.server.SubscriberRegistry;
 import service.AppInstance;
 
 public class ResourceReleaseManager {
@@ -55,16 +55,30 @@ public class ResourceReleaseManager {
             }
 
             // Subscribers 에게 NetStream.Play.UnPublishNotify 알림 전송, Header 에 streamId 전달
-            ChannelGroup channelGroup = publishStream.getSubscribers();
-            if (channelGroup != null) {
-                channelGroup.write(Command.unpublishNotify(publishStream.getStreamId()));
+            SubscriberRegistry subscribers = publishStream.getSubscribers();
+            if (subscribers != null) {
+                subscribers.write(Command.unpublishNotify(publishStream.getStreamId()));
             }
 
+            closeRecorder(publishStream, channelId);
             publishStream.setPublishChannel(null);
             app.deleteStream(streamName);
         }
     }
 
+    /**
+     * @fn closeRecorder
+     * @brief record / append 중인 publishStream 의 녹화 파일 정리 (un-publish, channel close)
+     * @param publishStream 녹화 중인 publishStream
+     * @param channelId 함수 호출한 channel ID (로그 출력용)
+     * */
+    public void closeRecorder(ServerStream publishStream, String channelId) {
+        if (publishStream == null || publishStream.getRecorder() == null) { return; }
+
+        logger.info("({}) [ResourceRelease] Close Recorder of [{}]", channelId, publishStream.getStreamName());
+        publishStream.closeRecorder();
+    }
+
     /**
      * @fn clearPlayStream
      * @brief play 요청에 의해 생성된 ServerStream 정리
@@ -23,6 +23,15 @@ public class Job {
     private String scheduleUnitKey = null;
     private Runnable runnable = null;
 
+    // run metrics, written by the single executor thread that runs this job
+    private volatile long scheduledTime = 0; // nanoTime the run was due at
+    private volatile long lastStartTime = 0;
+    private volatile long runCount = 0;
+    private volatile long lastLatency = 0; // due -> started (timer tick + queue wait), nanos
+    private volatile long maxLatency = 0;
+    private volatile long lastJitter = 0; // |actual - configured interval| between two runs, nanos
+    private volatile long maxJitter = 0;
+
     public Job() {
         // Nothing
     }
@@ -131,6 +140,53 @@ public class Job {
         this.runnable = runnable;
     }
 
+    public long getScheduledTime() {
+        return scheduledTime;
+    }
+
+    public void setScheduledTime(long scheduledTime) {
+        this.scheduledTime = scheduledTime;
+    }
+
+    public void recordRun(long startTime) {
+        final long latency = scheduledTime > 0 ? Math.max(0, startTime - scheduledTime) : 0;
+        lastLatency = latency;
+        if (latency > maxLatency) {
+            maxLatency = latency;
+        }
+
+        if (lastStartTime > 0 && isLasted && timeUnit != null) {
+            final long jitter = Math.abs((startTime - lastStartTime) - timeUnit.toNanos(interval));
+            lastJitter = jitter;
+            if (jitter > maxJitter) {
+                maxJitter = jitter;
+            }
+        }
+
+        lastStartTime = startTime;
+        runCount++;
+    }
+
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public long getLastJitter() {
+        return lastJitter;
+    }
+
+    public long getMaxJitter() {
+        return maxJitter;
+    }
+
     @Override
     public String toString() {
         return "Job{" +
@@ -144,6 +200,11 @@ public class Job {
                 ", isLasted=" + isLasted +
                 ", isFinished=" + isFinished.get() +
                 ", scheduleUnitKey=" + scheduleUnitKey +
+                ", runCount=" + runCount +
+                ", lastLatency=" + TimeUnit.NANOSECONDS.toMicros(lastLatency) + "us" +
+                ", maxLatency=" + TimeUnit.NANOSECONDS.toMicros(maxLatency) + "us" +
+                ", lastJitter=" + TimeUnit.NANOSECONDS.toMicros(lastJitter) + "us" +
+                ", maxJitter=" + TimeUnit.NANOSECONDS.toMicros(maxJitter) + "us" +
                 '}';
     }
 
@@ -3,9 +3,12 @@ package service.scheduler.schedule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import service.scheduler.job.Job;
+import service.scheduler.schedule.handler.JobScheduler;
 import service.scheduler.schedule.unit.ScheduleUnit;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.locks.ReentrantLock;
@@ -47,23 +50,25 @@ public class ScheduleManager {
         return cloneMap;
     }
 
-    private ScheduleUnit addScheduleUnit(String key, int poolSize, int queueSize) {
+    private ScheduleUnit addScheduleUnit(String key, int poolSize, int queueSize, long timerTickMs) {
         if (key == null) {
             return null;
         }
 
-        ScheduleUnit scheduleUnit = scheduleUnitMap.get(key);
-        if (scheduleUnit != null) {
-            return scheduleUnit;
-        }
-
         try {
             scheduleUnitMapLock.lock();
 
+            // checked under the lock, a unit shared between connections may be initialized concurrently
+            ScheduleUnit scheduleUnit = scheduleUnitMap.get(key);
+            if (scheduleUnit != null) {
+                return scheduleUnit;
+            }
+
             scheduleUnit = new ScheduleUnit(
                     key,
                     poolSize,
-                    queueSize
+                    queueSize,
+                    timerTickMs
             );
             scheduleUnitMap.put(key, scheduleUnit);
             return scheduleUnit;
@@ -92,7 +97,12 @@ public class ScheduleManager {
     public ScheduleUnit getScheduleUnit(String key) {
         if (key == null) { return null; }
 
-        return scheduleUnitMap.get(key);
+        try {
+            scheduleUnitMapLock.lock();
+            return scheduleUnitMap.get(key);
+        } finally {
+            scheduleUnitMapLock.unlock();
+        }
     }
 
     public void clearScheduleUnitMap() {
@@ -111,7 +121,22 @@ public class ScheduleManager {
     ////////////////////////////////////////////////////////////////////////////////
 
     public boolean initJob(String key, int totalThreadPoolSize, int priorityBlockingQueueSize) {
-        return addScheduleUnit(key, totalThreadPoolSize, priorityBlockingQueueSize) != null;
+        return initJob(key, totalThreadPoolSize, priorityBlockingQueueSize, JobScheduler.DEFAULT_TIMER_TICK_MS);
+    }
+
+    // timerTickMs: resolution of the unit's lasted job intervals (JobScheduler.DEFAULT_TIMER_TICK_MS by default),
+    // finer only for a unit whose jobs need it, its timer thread wakes up that often
+    public boolean initJob(String key, int totalThreadPoolSize, int priorityBlockingQueueSize, long timerTickMs) {
+        return addScheduleUnit(key, totalThreadPoolSize, priorityBlockingQueueSize, timerTickMs) != null;
+    }
+
+    // the lasted and pending jobs of all units
+    public List<Job> getScheduledJobs() {
+        final List<Job> jobs = new ArrayList<>();
+        for (ScheduleUnit scheduleUnit : getCloneCallMap().values()) {
+            jobs.addAll(scheduleUnit.getJobScheduler().getScheduledJobs());
+        }
+        return jobs;
     }
 
     public boolean startJob(String scheduleUnitKey, Job job) {
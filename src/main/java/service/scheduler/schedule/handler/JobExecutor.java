@@ -7,9 +7,7 @@ import service.scheduler.job.Job;
 
 import java.util.Comparator;
 import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
 public class JobExecutor {
 
@@ -18,15 +16,18 @@ public class JobExecutor {
 
     private final String scheduleUnitKey;
     private final int index;
+    private final int queueSize;
 
     private final PriorityBlockingQueue<Job> priorityQueue;
-    private final ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+    private final Thread workerThread;
+    private volatile boolean isRunning = true;
     ////////////////////////////////////////////////////////////////////////////////
 
     ////////////////////////////////////////////////////////////////////////////////
     public JobExecutor(String scheduleUnitKey, int index, int queueSize) {
         this.scheduleUnitKey = scheduleUnitKey;
         this.index = index;
+        this.queueSize = queueSize;
 
         priorityQueue = new PriorityBlockingQueue<>(
                 queueSize,
@@ -39,13 +40,8 @@ public class JobExecutor {
                 .daemon(true)
                 .build();
 
-        scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, threadFactory);
-        scheduledThreadPoolExecutor.scheduleAtFixedRate(
-                new Worker(),
-                0,
-                1,
-                TimeUnit.MILLISECONDS
-        );
+        workerThread = threadFactory.newThread(new Worker());
+        workerThread.start();
     }
     ////////////////////////////////////////////////////////////////////////////////
 
@@ -54,35 +50,49 @@ public class JobExecutor {
 
         @Override
         public void run() {
-            try {
-                // poll(): dequeue 후 객체 null 여부에 상관없이 기다리지 않음
-                // take(): dequeue 후 객체가 null 이 아닐 때까지 기다림
-                Job job = priorityQueue.poll();
-                if (job == null) { return; }
-
-                Runnable runnable = job.getRunnable();
-                if (runnable == null) { return; }
-
-                runnable.run();
-                if (!job.isLasted()) {
-                    job.decCurRemainRunCount();
-                    if (job.getCurRemainRunCount() < 0) {
-                        job.setIsFinished(true);
+            while (isRunning) {
+                try {
+                    // take(): 큐가 비어 있으면 job 이 들어올 때까지 기다림 (idle 상태에서 CPU 사용 없음)
+                    Job job = priorityQueue.take();
+
+                    Runnable runnable = job.getRunnable();
+                    if (runnable == null) { continue; }
+
+                    job.recordRun(System.nanoTime());
+                    runnable.run();
+                    if (!job.isLasted()) {
+                        job.decCurRemainRunCount();
+                        if (job.getCurRemainRunCount() < 0) {
+                            job.setIsFinished(true);
+                        }
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    // ignore
                 }
-            } catch (Exception e) {
-                // ignore
             }
         }
 
     }
 
     public void stop() {
-        scheduledThreadPoolExecutor.shutdown();
+        isRunning = false;
+        workerThread.interrupt();
         priorityQueue.clear();
     }
 
     public boolean addJob(Job job) {
+        // bounded: a lasted job fires again at its next interval, so a late run is dropped rather than piled up.
+        // the check and the offer are not atomic, but adds are serialized by JobScheduler.addJobToExecutor and
+        // the worker only takes jobs out, so the queue never grows past queueSize
+        if (priorityQueue.size() >= queueSize) {
+            logger.warn("[JobExecutor({})-{}] Queue is full, [{}] is dropped. (queueSize={})",
+                    scheduleUnitKey, index, job.getName(), queueSize
+            );
+            return false;
+        }
         return priorityQueue.offer(job);
     }
 
@@ -1,11 +1,16 @@
 package service.scheduler.schedule.handler;
 
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jboss.netty.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import service.scheduler.job.Job;
 import service.scheduler.schedule.unit.JobAdder;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class JobScheduler {
@@ -20,6 +25,13 @@ public class JobScheduler {
     private final HashMap<String, JobAdder> scheduleMap = new HashMap<>();
     private final ReentrantLock scheduleLock = new ReentrantLock();
 
+    // lasted jobs are re-fired by one timing wheel, the executors block until a job is handed over.
+    // the tick is the wheel's resolution (an interval is rounded up to it) and how often its thread wakes up,
+    // even with no job due: coarse by default, a unit with short intervals asks for a finer one
+    public static final long DEFAULT_TIMER_TICK_MS = 10;
+    private final long timerTickMs;
+    private final HashedWheelTimer timer;
+
     private final JobExecutor[] jobExecutors; // Round-Robin executor selection
     private final ReentrantLock executorLock = new ReentrantLock();
     private int curExecutorIndex = 0;
@@ -27,9 +39,23 @@ public class JobScheduler {
 
     ////////////////////////////////////////////////////////////////////////////////
     public JobScheduler(String scheduleUnitKey, int poolSize, int queueSize) {
+        this(scheduleUnitKey, poolSize, queueSize, DEFAULT_TIMER_TICK_MS);
+    }
+
+    public JobScheduler(String scheduleUnitKey, int poolSize, int queueSize, long timerTickMs) {
         this.scheduleUnitKey = scheduleUnitKey;
         this.poolSize = poolSize;
         this.queueSize = queueSize;
+        this.timerTickMs = timerTickMs > 0 ? timerTickMs : DEFAULT_TIMER_TICK_MS;
+
+        timer = new HashedWheelTimer(
+                new BasicThreadFactory
+                        .Builder()
+                        .namingPattern(scheduleUnitKey + "_JobTimer")
+                        .daemon(true)
+                        .build(),
+                this.timerTickMs, TimeUnit.MILLISECONDS
+        );
 
         jobExecutors = new JobExecutor[poolSize];
         for (int i = 0; i < poolSize; i++) {
@@ -57,8 +83,8 @@ public class JobScheduler {
                 return false;
             }
 
-            JobAdder jobAdder = new JobAdder(this, job, curExecutorIndex);
-            jobAdder.run();
+            JobAdder jobAdder = new JobAdder(this, timer, job, curExecutorIndex);
+            jobAdder.start();
             curExecutorIndex++;
             if (curExecutorIndex >= poolSize) {
                 curExecutorIndex = 0;
@@ -105,6 +131,7 @@ public class JobScheduler {
         try {
             scheduleMap.values().forEach(JobAdder::stop);
             scheduleMap.clear();
+            timer.stop();
             logger.debug("[JobScheduler({})] Success to stop all the jobs.", scheduleUnitKey);
         } catch (Exception e) {
             logger.warn("[JobScheduler({})] Fail to stop the jobs.", scheduleUnitKey, e);
@@ -144,12 +171,26 @@ public class JobScheduler {
         return scheduleMap.size();
     }
 
+    public List<Job> getScheduledJobs() {
+        scheduleLock.lock();
+        try {
+            final List<Job> jobs = new ArrayList<>(scheduleMap.size());
+            for (JobAdder jobAdder : scheduleMap.values()) {
+                jobs.add(jobAdder.getJob());
+            }
+            return jobs;
+        } finally {
+            scheduleLock.unlock();
+        }
+    }
+
     @Override
     public String toString() {
         return "JobScheduler{" +
                 "scheduleUnitKey='" + scheduleUnitKey + '\'' +
                 ", poolSize=" + poolSize +
                 ", queueSize=" + queueSize +
+                ", timerTickMs=" + timerTickMs +
                 '}';
     }
     ////////////////////////////////////////////////////////////////////////////////
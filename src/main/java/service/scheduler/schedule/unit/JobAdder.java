@@ -1,44 +1,81 @@
 package service.scheduler.schedule.unit;
 
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import service.scheduler.job.Job;
 import service.scheduler.schedule.handler.JobScheduler;
 
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-public class JobAdder implements Runnable {
-
-    ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
+public class JobAdder implements TimerTask {
 
     private final JobScheduler jobScheduler;
+    private final Timer timer;
     private final Job job;
     private final int executorIndex;
 
-    public JobAdder(JobScheduler jobScheduler, Job job, int executorIndex) {
+    private volatile Timeout timeout = null;
+    private volatile boolean isStopped = false;
+    private long nextRunTime = 0; // nanoTime, fixed rate: advanced by the interval, not from the actual fire time
+
+    public JobAdder(JobScheduler jobScheduler, Timer timer, Job job, int executorIndex) {
         this.jobScheduler = jobScheduler;
+        this.timer = timer;
         this.job = job;
         this.executorIndex = executorIndex;
     }
 
-    @Override
-    public void run() {
+    public void start() {
         if (job.isLasted()) {
-            scheduledThreadPoolExecutor.scheduleAtFixedRate(
-                    () -> {
-                        if (isJobFinished(job)) {
-                            jobScheduler.cancel(job);
-                        } else {
-                            jobScheduler.addJobToExecutor(executorIndex, job);
-                        }
-                    },
-                    job.getInitialDelay(), job.getInterval(), job.getTimeUnit()
-            );
+            nextRunTime = System.nanoTime() + job.getTimeUnit().toNanos(job.getInitialDelay());
+            schedule();
         } else {
+            job.setScheduledTime(System.nanoTime());
             jobScheduler.addJobToExecutor(executorIndex, job);
         }
     }
 
+    @Override
+    public void run(Timeout timeout) {
+        if (isStopped) {
+            return;
+        }
+
+        if (isJobFinished(job)) {
+            jobScheduler.cancel(job);
+            return;
+        }
+
+        job.setScheduledTime(nextRunTime);
+        jobScheduler.addJobToExecutor(executorIndex, job);
+
+        nextRunTime += job.getTimeUnit().toNanos(job.getInterval());
+        schedule();
+    }
+
+    private void schedule() {
+        if (isStopped) {
+            return;
+        }
+
+        timeout = timer.newTimeout(
+                this,
+                Math.max(0, nextRunTime - System.nanoTime()),
+                TimeUnit.NANOSECONDS
+        );
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
     public void stop() {
-        scheduledThreadPoolExecutor.shutdown();
+        isStopped = true;
+        Timeout curTimeout = timeout;
+        if (curTimeout != null) {
+            curTimeout.cancel();
+        }
     }
 
     public boolean isJobFinished(Job job) {
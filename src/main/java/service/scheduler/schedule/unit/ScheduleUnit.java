@@ -21,6 +21,10 @@ public class ScheduleUnit {
 
     ////////////////////////////////////////////////////////////////////////////////
     public ScheduleUnit(String key, int poolSize, int queueSize) {
+        this(key, poolSize, queueSize, JobScheduler.DEFAULT_TIMER_TICK_MS);
+    }
+
+    public ScheduleUnit(String key, int poolSize, int queueSize, long timerTickMs) {
         this.scheduleUnitKey = key;
 
         if (poolSize > 0) {
@@ -29,7 +33,7 @@ public class ScheduleUnit {
             this.poolSize = DEFAULT_THREAD_COUNT;
         }
 
-        jobScheduler = new JobScheduler(scheduleUnitKey, poolSize, queueSize);
+        jobScheduler = new JobScheduler(scheduleUnitKey, poolSize, queueSize, timerTickMs);
     }
     ////////////////////////////////////////////////////////////////////////////////
 
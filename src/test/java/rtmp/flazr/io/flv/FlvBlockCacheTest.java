@@ -0,0 +1,272 @@
+package rtmp.flazr.io.flv;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlvBlockCacheTest {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final String PATH = "test.flv";
+
+    // a file in memory, reads wait for the gate and fail while failing is set
+    private static final class TestFileChannel extends FileChannel {
+        private final byte[] file;
+        private final CountDownLatch gate;
+        private final AtomicInteger reads = new AtomicInteger();
+        private final CountDownLatch reading = new CountDownLatch(1);
+        private volatile boolean failing;
+
+        private TestFileChannel(final int size, final CountDownLatch gate) {
+            file = new byte[size];
+            for (int i = 0; i < size; i++) {
+                file[i] = (byte) i;
+            }
+            this.gate = gate;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst, final long position) throws IOException {
+            reads.incrementAndGet();
+            reading.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failing) {
+                throw new IOException("read failed");
+            }
+            if (position >= file.length) {
+                return -1;
+            }
+            final int length = (int) Math.min(dst.remaining(), file.length - position);
+            dst.put(file, (int) position, length);
+            return length;
+        }
+
+        @Override
+        public long size() {
+            return file.length;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+
+    private static TestFileChannel open(final int size) {
+        return new TestFileChannel(size, new CountDownLatch(0));
+    }
+
+    private static FlvBlockCache.Block acquire(final FlvBlockCache cache, final TestFileChannel channel, final long blockIndex) throws IOException {
+        return cache.acquire(PATH, channel.size(), 1, channel, blockIndex);
+    }
+
+    @Test
+    public void referencedBlockIsNotEvicted() throws IOException {
+        final FlvBlockCache cache = new FlvBlockCache(BLOCK_SIZE, 2 * BLOCK_SIZE);
+        final TestFileChannel channel = open(8 * BLOCK_SIZE);
+
+        final FlvBlockCache.Block held = acquire(cache, channel, 0);
+        for (int i = 1; i < 6; i++) {
+            cache.release(acquire(cache, channel, i));
+        }
+        assertTrue(cache.getResidentBytes() <= 2 * BLOCK_SIZE);
+        assertEquals(6, cache.getMisses());
+
+        // still cached while referenced, the others were evicted down to the limit
+        final FlvBlockCache.Block again = acquire(cache, channel, 0);
+        assertSame(held, again);
+        assertEquals(1, cache.getHits());
+        assertEquals(3, held.slice(0, BLOCK_SIZE).get(3));
+        cache.release(again);
+        cache.release(held);
+
+        // unreferenced now, the next loads evict it
+        cache.release(acquire(cache, channel, 6));
+        cache.release(acquire(cache, channel, 7));
+        assertNotSame(held, acquire(cache, channel, 0));
+        assertEquals(9, cache.getMisses());
+    }
+
+    @Test
+    public void failedBlockIsReplaced() throws IOException {
+        final FlvBlockCache cache = new FlvBlockCache(BLOCK_SIZE, 4 * BLOCK_SIZE);
+        final TestFileChannel channel = open(4 * BLOCK_SIZE);
+
+        channel.failing = true;
+        try {
+            acquire(cache, channel, 1);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, cache.getResidentBytes());
+        assertEquals(0, cache.getBlockCount());
+
+        channel.failing = false;
+        final FlvBlockCache.Block block = acquire(cache, channel, 1);
+        assertEquals(BLOCK_SIZE, block.getStart());
+        assertEquals(BLOCK_SIZE + 2, block.slice(2, 4).get(0));
+        assertEquals(BLOCK_SIZE, cache.getResidentBytes());
+        assertEquals(2, cache.getMisses());
+        cache.release(block);
+    }
+
+    @Test
+    public void waitersGetTheBlockLoadedOnce() throws Exception {
+        final FlvBlockCache cache = new FlvBlockCache(BLOCK_SIZE, 4 * BLOCK_SIZE);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final TestFileChannel channel = new TestFileChannel(4 * BLOCK_SIZE, gate);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final Future<FlvBlockCache.Block> loader = executor.submit(() -> acquire(cache, channel, 2));
+            assertTrue(channel.reading.await(5, TimeUnit.SECONDS));
+            final Future<FlvBlockCache.Block> waiter1 = executor.submit(() -> acquire(cache, channel, 2));
+            final Future<FlvBlockCache.Block> waiter2 = executor.submit(() -> acquire(cache, channel, 2));
+            while (cache.getHits() < 2) {
+                Thread.sleep(1);
+            }
+            gate.countDown();
+
+            final FlvBlockCache.Block block = loader.get(5, TimeUnit.SECONDS);
+            assertSame(block, waiter1.get(5, TimeUnit.SECONDS));
+            assertSame(block, waiter2.get(5, TimeUnit.SECONDS));
+            assertEquals(1, channel.reads.get());
+            assertEquals(2 * BLOCK_SIZE, block.slice(0, 1).get(0));
+            cache.release(block);
+            cache.release(block);
+            cache.release(block);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waitersOfAFailedLoadFailAndTheNextReaderReloads() throws Exception {
+        final FlvBlockCache cache = new FlvBlockCache(BLOCK_SIZE, 4 * BLOCK_SIZE);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final TestFileChannel channel = new TestFileChannel(4 * BLOCK_SIZE, gate);
+        channel.failing = true;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<FlvBlockCache.Block> loader = executor.submit(() -> acquire(cache, channel, 0));
+            assertTrue(channel.reading.await(5, TimeUnit.SECONDS));
+            final Future<FlvBlockCache.Block> waiter = executor.submit(() -> acquire(cache, channel, 0));
+            while (cache.getHits() < 1) {
+                Thread.sleep(1);
+            }
+            gate.countDown();
+
+            for (Future<FlvBlockCache.Block> future : new Future[]{loader, waiter}) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException);
+                }
+            }
+            assertEquals(0, cache.getResidentBytes());
+
+            channel.failing = false;
+            final FlvBlockCache.Block block = acquire(cache, channel, 0);
+            assertEquals(5, block.slice(5, 1).get(0));
+            assertEquals(2, cache.getMisses());
+            cache.release(block);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
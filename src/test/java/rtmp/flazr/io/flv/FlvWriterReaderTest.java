@@ -0,0 +1,161 @@
+package rtmp.flazr.io.flv;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records a few tags with the writer and plays them back with the reader, then checks the index sidecar it leaves.
+ */
+public class FlvWriterReaderTest {
+
+    private static final long WRITE_TIMEOUT = 5000; // millis
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writtenTagsAreReadBack() throws Exception {
+        final File file = folder.newFile("record.flv");
+        final List<RtmpMessage> messages = new ArrayList<>();
+        messages.add(video(1000, 0x17)); // recordings start at 0
+        messages.add(audio(1020));
+        messages.add(video(1040, 0x27));
+        messages.add(audio(1060));
+        messages.add(video(1080, 0x17));
+        record(file, false, messages);
+
+        final FlvReader reader = new FlvReader(file);
+        try {
+            for (RtmpMessage expected : messages) {
+                assertTrue(reader.hasNext());
+                final RtmpMessage message = reader.next();
+                assertEquals(expected.getHeader().getMessageType(), message.getHeader().getMessageType());
+                assertEquals(expected.getHeader().getTime() - 1000, message.getHeader().getTime());
+                assertArrayEquals(bytes(expected), bytes(message));
+            }
+            assertFalse(reader.hasNext());
+            assertEquals(80, reader.getIndex().getDuration());
+            assertEquals(2, reader.getIndex().getCount()); // the keyframes
+            assertEquals(80, reader.seek(90));
+        } finally {
+            reader.close();
+            FlvIndexCache.getInstance().remove(file);
+        }
+    }
+
+    @Test
+    public void appendedTagsFollowTheLastOne() throws Exception {
+        final File file = folder.newFile("append.flv");
+        final List<RtmpMessage> first = new ArrayList<>();
+        first.add(video(0, 0x17));
+        first.add(video(40, 0x27));
+        record(file, false, first);
+        final List<RtmpMessage> second = new ArrayList<>();
+        second.add(video(5000, 0x17));
+        record(file, true, second);
+
+        final FlvReader reader = new FlvReader(file);
+        try {
+            reader.next();
+            reader.next();
+            final RtmpMessage appended = reader.next();
+            assertEquals(80, appended.getHeader().getTime()); // a frame after the last tag
+            assertArrayEquals(bytes(second.get(0)), bytes(appended));
+            assertFalse(reader.hasNext());
+        } finally {
+            reader.close();
+            FlvIndexCache.getInstance().remove(file);
+        }
+    }
+
+    @Test
+    public void indexSidecarIsSavedAndLoadedForTheSameFileOnly() throws Exception {
+        final File file = folder.newFile("indexed.flv");
+        final List<RtmpMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(video(i * 40, i % 5 == 0 ? 0x17 : 0x27));
+        }
+        record(file, false, messages);
+
+        final FlvReader reader = new FlvReader(file); // builds the index and saves it next to the file
+        final FlvIndex built = reader.getIndex();
+        reader.close();
+        FlvIndexCache.getInstance().remove(file);
+
+        final File indexFile = FlvIndex.getIndexFile(file);
+        assertTrue(indexFile.isFile());
+        final FlvIndex loaded = FlvIndex.load(indexFile, file.length(), file.lastModified());
+        assertNotNull(loaded);
+        assertEquals(built.getCount(), loaded.getCount());
+        for (int i = 0; i < built.getCount(); i++) {
+            assertEquals(built.getTime(i), loaded.getTime(i));
+            assertEquals(built.getPosition(i), loaded.getPosition(i));
+        }
+        assertEquals(built.getDataStart(), loaded.getDataStart());
+        assertEquals(built.getDataEnd(), loaded.getDataEnd());
+        assertEquals(built.getDuration(), loaded.getDuration());
+        assertEquals(1, loaded.find(250));
+
+        assertNull(FlvIndex.load(indexFile, file.length() + 1, file.lastModified())); // grown since
+        assertNull(FlvIndex.load(indexFile, file.length(), file.lastModified() + 1000)); // rewritten since
+    }
+
+    private static void record(final File file, final boolean append, final List<RtmpMessage> messages) throws InterruptedException {
+        final FlvWriter writer = new FlvWriter(file, append);
+        for (RtmpMessage message : messages) {
+            writer.write(message);
+        }
+        writer.close();
+        final long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+        while (writer.getWrittenTags() < messages.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(messages.size(), writer.getWrittenTags());
+        assertEquals(0, writer.getDroppedTags());
+    }
+
+    private static byte[] bytes(final RtmpMessage message) {
+        final ChannelBuffer data = message.encode();
+        final byte[] bytes = new byte[data.readableBytes()];
+        data.getBytes(data.readerIndex(), bytes);
+        return bytes;
+    }
+
+    private static Video video(final int time, final int flags) {
+        final byte[] data = new byte[64 + time % 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (time + i);
+        }
+        data[0] = (byte) flags;
+        data[1] = 1; // a nalu, not the avc config
+        return new Video(time, ChannelBuffers.wrappedBuffer(data));
+    }
+
+    private static Audio audio(final int time) {
+        final byte[] data = new byte[32];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (time - i);
+        }
+        data[0] = (byte) 0xaf;
+        data[1] = 1; // a frame, not the aac config
+        return new Audio(time, ChannelBuffers.wrappedBuffer(data));
+    }
+
+}
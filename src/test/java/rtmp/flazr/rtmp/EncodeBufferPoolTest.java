@@ -0,0 +1,111 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.junit.Test;
+import rtmp.flazr.rtmp.message.Command;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EncodeBufferPoolTest {
+
+    private static final Channel CHANNEL = (Channel) Proxy.newProxyInstance(EncodeBufferPoolTest.class.getClassLoader(),
+            new Class[]{Channel.class}, (proxy, method, args) -> "hashCode".equals(method.getName()) ? 1 : null);
+
+    private static final ChannelPipeline PIPELINE = Channels.pipeline(); // no handshaker, a plain rtmp connection
+
+    // the encoded buffers the encoder passes on
+    private final List<ChannelBuffer> written = new ArrayList<>();
+    private final ChannelHandlerContext ctx = (ChannelHandlerContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[]{ChannelHandlerContext.class}, (proxy, method, args) -> {
+                if ("getChannel".equals(method.getName())) {
+                    return CHANNEL;
+                }
+                if ("getPipeline".equals(method.getName())) {
+                    return PIPELINE;
+                }
+                if ("sendDownstream".equals(method.getName())) {
+                    written.add((ChannelBuffer) ((MessageEvent) args[0]).getMessage());
+                }
+                return null;
+            });
+
+    private ChannelBuffer write(final RtmpEncoder encoder, final RtmpMessage message, final ChannelFuture future) {
+        encoder.writeRequested(ctx, new DownstreamMessageEvent(CHANNEL, future, message, null));
+        return written.get(written.size() - 1);
+    }
+
+    @Test
+    public void sizeClassesAndBounds() {
+        final EncodeBufferPool pool = new EncodeBufferPool(2 * EncodeBufferPool.LARGE_BUFFER_SIZE);
+        assertEquals(EncodeBufferPool.SMALL_BUFFER_SIZE, pool.acquire(100).capacity());
+        assertEquals(EncodeBufferPool.LARGE_BUFFER_SIZE, pool.acquire(5000).capacity());
+        assertNull(pool.acquire(EncodeBufferPool.LARGE_BUFFER_SIZE + 1)); // fits no class
+        assertNull(pool.acquire(5000)); // a large buffer only (half of the bytes)
+        assertEquals(2, pool.getMisses());
+
+        final ChannelBuffer small = pool.acquire(10);
+        small.writeInt(1);
+        pool.release(small);
+        final ChannelBuffer again = pool.acquire(10);
+        assertSame(small, again);
+        assertEquals(0, again.readableBytes());
+    }
+
+    @Test
+    public void bufferIsReusedOnceItsWriteIsDone() {
+        final EncodeBufferPool pool = new EncodeBufferPool(1 << 20);
+        final RtmpEncoder encoder = new RtmpEncoder(pool);
+        final Command command = Command.playFailed("none");
+
+        final ChannelFuture first = new DefaultChannelFuture(CHANNEL, false);
+        final ChannelBuffer firstOut = write(encoder, command, first);
+        assertEquals(1, pool.getHits());
+
+        // still being written
+        final ChannelFuture second = new DefaultChannelFuture(CHANNEL, false);
+        final ChannelBuffer secondOut = write(encoder, command, second);
+        assertNotSame(firstOut, secondOut);
+
+        first.setSuccess();
+        assertSame(firstOut, write(encoder, command, new DefaultChannelFuture(CHANNEL, false)));
+        assertEquals(3, pool.getHits());
+    }
+
+    @Test
+    public void doneFuturesAndSharedCopiesAreNotPooled() {
+        final EncodeBufferPool pool = new EncodeBufferPool(1 << 20);
+        final RtmpEncoder encoder = new RtmpEncoder(pool);
+
+        write(encoder, Command.playFailed("none"), Channels.succeededFuture(CHANNEL));
+        assertEquals(0, pool.getHits() + pool.getMisses());
+
+        final boolean sharedEncoding = RtmpConfig.SHARED_ENCODING;
+        RtmpConfig.SHARED_ENCODING = true;
+        try {
+            final Video video = new Video(0, ChannelBuffers.wrappedBuffer(new byte[1000]));
+            video.getHeader().setStreamId(1);
+            write(encoder, video, new DefaultChannelFuture(CHANNEL, false));
+            assertEquals(0, pool.getHits() + pool.getMisses());
+        } finally {
+            RtmpConfig.SHARED_ENCODING = sharedEncoding;
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Test;
+import rtmp.flazr.rtmp.message.BytesRead;
+import rtmp.flazr.rtmp.message.SetPeerBw;
+import rtmp.flazr.rtmp.message.Video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FlowControlTest {
+
+    @Test
+    public void dynamicLimitIsIgnoredWithoutAHardOne() {
+        final FlowControl flowControl = new FlowControl();
+        flowControl.setWindowAckSize(1000);
+        assertFalse(flowControl.onPeerBandwidth(5000, SetPeerBw.LimitType.DYNAMIC));
+        assertEquals(0, flowControl.getPeerBandwidth());
+
+        assertTrue(flowControl.onPeerBandwidth(4000, SetPeerBw.LimitType.SOFT));
+        assertFalse(flowControl.onPeerBandwidth(5000, SetPeerBw.LimitType.DYNAMIC));
+        assertEquals(4000, flowControl.getPeerBandwidth());
+    }
+
+    @Test
+    public void dynamicLimitCountsAsHardAfterAHardOne() {
+        final FlowControl flowControl = new FlowControl();
+        assertTrue(flowControl.onPeerBandwidth(4000, SetPeerBw.LimitType.HARD));
+        assertTrue(flowControl.onPeerBandwidth(8000, SetPeerBw.LimitType.DYNAMIC));
+        assertEquals(8000, flowControl.getPeerBandwidth());
+        assertTrue(flowControl.onPeerBandwidth(6000, SetPeerBw.LimitType.DYNAMIC));
+        assertEquals(6000, flowControl.getPeerBandwidth());
+    }
+
+    @Test
+    public void softLimitOnlyLowers() {
+        final FlowControl flowControl = new FlowControl();
+        assertTrue(flowControl.onPeerBandwidth(4000, SetPeerBw.LimitType.SOFT));
+        assertFalse(flowControl.onPeerBandwidth(6000, SetPeerBw.LimitType.SOFT));
+        assertEquals(4000, flowControl.getPeerBandwidth());
+        assertTrue(flowControl.onPeerBandwidth(3000, SetPeerBw.LimitType.SOFT));
+        assertEquals(3000, flowControl.getPeerBandwidth());
+    }
+
+    @Test
+    public void chunkDecoderAcknowledgesWithinAMessage() {
+        acknowledgesWithinAMessage(new RtmpChunkDecoder(new FlowControl(1000)));
+    }
+
+    @Test
+    public void decoderAcknowledgesWithinAMessage() {
+        acknowledgesWithinAMessage(new RtmpDecoder(new FlowControl(1000)));
+    }
+
+    // one 5000 byte message read 500 bytes at a time: acknowledged every window, before it completes
+    private static void acknowledgesWithinAMessage(final ChannelUpstreamHandler decoder) {
+        final RtmpEncoder encoder = new RtmpEncoder();
+        final Video video = new Video(40, ChannelBuffers.wrappedBuffer(new byte[5000]));
+        video.getHeader().setStreamId(1);
+        final ChannelBuffer wire = encoder.encode(video);
+
+        final DecoderEmbedder<Object> embedder = new DecoderEmbedder<>(decoder);
+        long expectedAck = 0;
+        while (wire.readable()) {
+            embedder.offer(wire.readBytes(Math.min(500, wire.readableBytes())));
+            if (wire.readerIndex() - expectedAck >= 1000) {
+                expectedAck = wire.readerIndex();
+                assertEquals(expectedAck, ((BytesRead) embedder.poll()).getValue());
+            }
+            if (wire.readable()) {
+                assertNull(embedder.poll());
+            }
+        }
+        assertTrue(embedder.poll() instanceof Video);
+    }
+
+}
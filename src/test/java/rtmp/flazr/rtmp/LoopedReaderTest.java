@@ -0,0 +1,130 @@
+package rtmp.flazr.rtmp;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import rtmp.flazr.rtmp.message.Metadata;
+import rtmp.flazr.rtmp.message.MetadataAmf0;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loops of a 3 frame file (video at 0, 40 and 80 ms, so a loop is 120 ms long) on one timeline.
+ */
+public class LoopedReaderTest {
+
+    private static final int LOOP_LENGTH = 120;
+
+    // a file in memory, new messages on each read like a file reader
+    private static final class TestReader implements RtmpReader {
+        private final Metadata metadata = new MetadataAmf0("onMetaData");
+        private int index;
+        private long timePosition;
+
+        @Override
+        public Metadata getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public RtmpMessage[] getStartMessages() {
+            return new RtmpMessage[0];
+        }
+
+        @Override
+        public void setAggregateDuration(int targetDuration) {
+        }
+
+        @Override
+        public long getTimePosition() {
+            return timePosition;
+        }
+
+        // to the frame at or before the time
+        @Override
+        public long seek(long timePosition) {
+            index = (int) Math.min(2, timePosition / 40);
+            this.timePosition = index * 40L;
+            return this.timePosition;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < 3;
+        }
+
+        @Override
+        public RtmpMessage next() {
+            final Video video = new Video(index * 40, ChannelBuffers.wrappedBuffer(new byte[]{(byte) (index == 0 ? 0x17 : 0x27), 1}));
+            timePosition = index++ * 40L;
+            return video;
+        }
+    }
+
+    @Test
+    public void timesContinueAcrossLoops() {
+        final List<Long> expected = new ArrayList<>();
+        for (int loop = 0; loop < 3; loop++) {
+            for (int frame = 0; frame < 3; frame++) {
+                expected.add(loop * LOOP_LENGTH + frame * 40L);
+            }
+        }
+        assertEquals(expected, play(new LoopedReader(new TestReader(), 3)));
+        assertEquals(expected, play(new LoopedReader(TestReader::new, Runnable::run, 3)));
+    }
+
+    @Test
+    public void seekGoesIntoTheLoopOnceItsLengthIsKnown() {
+        final LoopedReader reader = new LoopedReader(TestReader::new, Runnable::run, 4);
+        for (int i = 0; i < 3; i++) {
+            reader.next();
+        }
+        assertTrue(reader.hasNext()); // the end of the first loop, its length is known now
+
+        assertEquals(2 * LOOP_LENGTH + 40, reader.seek(2 * LOOP_LENGTH + 50));
+        final List<Long> times = play(reader);
+        assertEquals(5, times.size());
+        assertEquals(2 * LOOP_LENGTH + 40, (long) times.get(0));
+        assertEquals(2 * LOOP_LENGTH + 80, (long) times.get(1));
+        assertEquals(3 * LOOP_LENGTH, (long) times.get(2)); // the last loop
+        assertEquals(3 * LOOP_LENGTH + 80, (long) times.get(4));
+    }
+
+    @Test
+    public void latePrefetchRewindsInstead() {
+        final List<Runnable> neverRun = new ArrayList<>();
+        final Executor stalled = neverRun::add;
+        final LoopedReader reader = new LoopedReader(TestReader::new, stalled, 2);
+        for (int i = 0; i < 3; i++) {
+            reader.next();
+        }
+
+        final long start = System.nanoTime();
+        assertTrue(reader.hasNext());
+        assertTrue(System.nanoTime() - start < 10 * LoopedReader.PREFETCH_WAIT_MS * 1000000);
+        assertEquals(LOOP_LENGTH, reader.next().getHeader().getTimestamp());
+        assertEquals(1, neverRun.size());
+        reader.next();
+        reader.next();
+        assertFalse(reader.hasNext());
+    }
+
+    private static List<Long> play(final RtmpReader reader) {
+        final List<Long> times = new ArrayList<>();
+        while (reader.hasNext()) {
+            times.add(reader.next().getHeader().getTimestamp());
+        }
+        return times;
+    }
+
+}
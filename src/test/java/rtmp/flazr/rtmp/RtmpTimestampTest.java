@@ -0,0 +1,164 @@
+package rtmp.flazr.rtmp;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.generator.InRange;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.runner.RunWith;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.DataMessage;
+import rtmp.flazr.rtmp.message.MessageType;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 64 bit timestamps over the 32 bit wire: unwrapping, and encoding / decoding through both decoders
+ * across the wraparound, with deltas and extended timestamps.
+ */
+@RunWith(JUnitQuickcheck.class)
+public class RtmpTimestampTest {
+
+    private static final long MAX_START = 1L << 40;
+
+    @Property
+    public void unwrapContinuesTheTimeline(@InRange(minLong = 0, maxLong = MAX_START) long reference,
+                                           @InRange(minLong = -(1L << 31) + 1, maxLong = (1L << 31) - 1) long offset) {
+        final long time = reference + offset;
+        assertEquals(time, RtmpHeader.unwrap(reference, (int) time));
+    }
+
+    @Property
+    public void wireTimeIsTheLower32Bits(@InRange(minLong = 0, maxLong = MAX_START) long time) {
+        final RtmpHeader header = new RtmpHeader(MessageType.VIDEO);
+        header.setTimestamp(time);
+        assertEquals((int) time, header.getTime());
+        assertEquals(time, RtmpHeader.unwrap(time - 1000, header.getTime()));
+    }
+
+    @Property(trials = 40)
+    public void chunkDecoderRoundTrip(@InRange(minLong = 0, maxLong = MAX_START) long start, long seed) {
+        roundTrip(new RtmpChunkDecoder(), start, seed);
+    }
+
+    @Property(trials = 40)
+    public void decoderRoundTrip(@InRange(minLong = 0, maxLong = MAX_START) long start, long seed) {
+        roundTrip(new RtmpDecoder(), start, seed);
+    }
+
+    @Property(trials = 20)
+    public void roundTripNearTheWraparound(@InRange(minLong = 0, maxLong = 100000) long beforeWrap, long seed) {
+        final long start = RtmpHeader.TIME_MASK - beforeWrap;
+        roundTrip(new RtmpChunkDecoder(), start, seed);
+        roundTrip(new RtmpDecoder(), start, seed);
+    }
+
+    @Property(trials = 30)
+    public void shortLastChunkAfterAnExtendedTimestamp(@InRange(minInt = 1, maxInt = 3) int lastChunkBytes,
+                                                       @InRange(minInt = 1, maxInt = 3) int chunks,
+                                                       boolean payloadLooksLikeTheTimestamp, long seed) {
+        extendedTimeOnContinuations(new RtmpChunkDecoder(), lastChunkBytes, chunks, payloadLooksLikeTheTimestamp, seed);
+        extendedTimeOnContinuations(new RtmpDecoder(), lastChunkBytes, chunks, payloadLooksLikeTheTimestamp, seed);
+    }
+
+    /**
+     * messages with random sizes (many over the chunk size) and times: small steps, steps back (LARGE headers),
+     * deltas over 24 bits (extended timestamps); the first time is only known modulo 2^32 to the receiver,
+     * the others follow it on the 64 bit timeline
+     */
+    private static void roundTrip(final ChannelUpstreamHandler decoder, final long start, final long seed) {
+        final Random random = new Random(seed);
+        final RtmpEncoder encoder = new RtmpEncoder();
+        final ChannelBuffer wire = ChannelBuffers.dynamicBuffer();
+        final List<byte[]> payloads = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+
+        long time = start;
+        for (int i = 0; i < 300; i++) {
+            final byte[] payload = new byte[random.nextInt(i % 7 == 0 ? 3000 : 300) + 1];
+            random.nextBytes(payload);
+            final int step = random.nextInt(100);
+            if (step == 0) {
+                time = Math.max(1, time - random.nextInt(100000));
+            } else if (step == 1) {
+                time += RtmpHeader.MAX_NORMAL_HEADER_TIME + 1 + random.nextInt(1000);
+            } else {
+                time += random.nextInt(60);
+            }
+
+            final DataMessage message = i % 2 == 0
+                    ? new Video(0, ChannelBuffers.wrappedBuffer(payload))
+                    : new Audio(0, ChannelBuffers.wrappedBuffer(payload));
+            message.getHeader().setTimestamp(time);
+            message.getHeader().setStreamId(1);
+            wire.writeBytes(encoder.encode(message));
+            payloads.add(payload);
+            times.add(time);
+        }
+
+        final DecoderEmbedder<Object> embedder = new DecoderEmbedder<>(decoder);
+        while (wire.readable()) {
+            embedder.offer(wire.readBytes(Math.min(wire.readableBytes(), random.nextInt(700) + 1)));
+        }
+        embedder.finish();
+
+        long base = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            final DataMessage message = (DataMessage) embedder.poll();
+            if (i == 0) {
+                base = times.get(0) - message.getHeader().getTimestamp();
+                assertEquals(0, base & RtmpHeader.TIME_MASK);
+            }
+            assertEquals(ChannelBuffers.wrappedBuffer(payloads.get(i)), message.encode());
+            assertEquals((long) times.get(i), message.getHeader().getTimestamp() + base);
+        }
+        assertNull(embedder.poll());
+    }
+
+    /**
+     * messages of an extended timestamp whose last chunk is shorter than the 4 bytes of the repeated field,
+     * with continuation payloads that may start with the same bytes as the timestamp: each message is decoded
+     * as soon as its last byte is in, without waiting for bytes of the next one
+     */
+    private static void extendedTimeOnContinuations(final ChannelUpstreamHandler decoder, final int lastChunkBytes,
+                                                    final int chunks, final boolean payloadLooksLikeTheTimestamp,
+                                                    final long seed) {
+        final Random random = new Random(seed);
+        final int extendedTime = RtmpHeader.MAX_NORMAL_HEADER_TIME + random.nextInt(1 << 30);
+        final RtmpEncoder encoder = new RtmpEncoder();
+        final DecoderEmbedder<Object> embedder = new DecoderEmbedder<>(decoder);
+        for (int i = 0; i < 3; i++) {
+            final byte[] payload = new byte[chunks * 128 + lastChunkBytes];
+            random.nextBytes(payload);
+            if (payloadLooksLikeTheTimestamp) {
+                for (int chunk = 128; chunk < payload.length; chunk += 128) {
+                    for (int b = 0; b < 4 && chunk + b < payload.length; b++) {
+                        payload[chunk + b] = (byte) (extendedTime >>> (24 - 8 * b));
+                    }
+                }
+            }
+            final Video video = new Video(0, ChannelBuffers.wrappedBuffer(payload));
+            video.getHeader().setTimestamp(extendedTime + i * RtmpHeader.MAX_NORMAL_HEADER_TIME);
+            video.getHeader().setStreamId(1);
+
+            final ChannelBuffer wire = encoder.encode(video);
+            while (wire.readable()) {
+                embedder.offer(wire.readBytes(Math.min(wire.readableBytes(), random.nextInt(200) + 1)));
+            }
+            final DataMessage message = (DataMessage) embedder.poll();
+            assertEquals(ChannelBuffers.wrappedBuffer(payload), message.encode());
+            assertEquals(extendedTime + i * RtmpHeader.MAX_NORMAL_HEADER_TIME, message.getHeader().getTimestamp());
+            assertNull(embedder.poll());
+        }
+        embedder.finish();
+    }
+
+}
@@ -0,0 +1,94 @@
+package rtmp.flazr.rtmp.message;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.server.AggregatePacker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AggregateTest {
+
+    @Test
+    public void splitGivesBackWhatWasPacked() {
+        final List<RtmpMessage> packed = new ArrayList<>();
+        packed.add(video(0x17, 1000, 300));
+        packed.add(audio(1010, 20));
+        packed.add(video(0x27, 1040, 120));
+        packed.add(audio(1050, 20));
+        final AggregatePacker packer = new AggregatePacker(60000);
+        for (RtmpMessage message : packed) {
+            packer.add(message);
+        }
+        final Aggregate aggregate = packer.flush();
+        aggregate.getHeader().setStreamId(1);
+        assertEquals(1000, aggregate.getHeader().getTime());
+
+        final List<RtmpMessage> split = aggregate.split();
+        assertEquals(packed.size(), split.size());
+        for (int i = 0; i < packed.size(); i++) {
+            final RtmpMessage expected = packed.get(i);
+            final RtmpMessage actual = split.get(i);
+            assertEquals(expected.getHeader().getMessageType(), actual.getHeader().getMessageType());
+            assertEquals(expected.getHeader().getTime(), actual.getHeader().getTime());
+            assertEquals(expected.getHeader().getSize(), actual.getHeader().getSize());
+            assertEquals(1, actual.getHeader().getStreamId());
+            assertEquals(expected.encode(), actual.encode());
+        }
+    }
+
+    @Test
+    public void withoutVideoKeepsTheOtherTagsAtTheirTimes() {
+        final AggregatePacker packer = new AggregatePacker(60000);
+        packer.add(video(0x27, 2000, 200));
+        packer.add(audio(2020, 30));
+        packer.add(video(0x27, 2040, 200));
+        packer.add(audio(2060, 40));
+        final Aggregate aggregate = packer.flush();
+        assertTrue(aggregate.hasNonVideoTags());
+
+        final Aggregate rest = aggregate.withoutVideo();
+        assertEquals(2020, rest.getHeader().getTime());
+        assertEquals(2 * (11 + 4) + 30 + 40, rest.getHeader().getSize());
+        final List<RtmpMessage> tags = rest.split();
+        assertEquals(2, tags.size());
+        assertEquals(MessageType.AUDIO, tags.get(0).getHeader().getMessageType());
+        assertEquals(2020, tags.get(0).getHeader().getTime());
+        assertEquals(2060, tags.get(1).getHeader().getTime());
+        assertEquals(40, tags.get(1).getHeader().getSize());
+        assertEquals(-1, rest.getFirstVideoFlags());
+    }
+
+    @Test
+    public void videoOnlyAggregateHasNothingLeft() {
+        final AggregatePacker packer = new AggregatePacker(60000);
+        packer.add(video(0x27, 0, 100));
+        packer.add(video(0x27, 40, 100));
+        final Aggregate aggregate = packer.flush();
+        assertFalse(aggregate.hasNonVideoTags());
+        assertNull(aggregate.withoutVideo());
+    }
+
+    private static Video video(final int flags, final int time, final int size) {
+        final byte[] data = new byte[size];
+        data[0] = (byte) flags;
+        data[1] = 1;
+        data[size - 1] = (byte) time;
+        return new Video(time, ChannelBuffers.wrappedBuffer(data));
+    }
+
+    private static Audio audio(final int time, final int size) {
+        final byte[] data = new byte[size];
+        data[0] = (byte) 0xaf;
+        data[1] = 1;
+        data[size - 1] = (byte) time;
+        return new Audio(time, ChannelBuffers.wrappedBuffer(data));
+    }
+
+}
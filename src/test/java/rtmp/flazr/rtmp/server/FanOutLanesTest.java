@@ -0,0 +1,132 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * One lane held up by a join, media of two streams queued behind it: the skipping is per stream.
+ */
+public class FanOutLanesTest {
+
+    private static final int FRAME = 100;
+
+    private FanOutLanes lanes;
+    private CountDownLatch blocked;
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        lanes = new FanOutLanes(1, 10 * FRAME);
+        blocked = new CountDownLatch(1);
+        lanes.execute(0, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        lanes.stop();
+    }
+
+    @Test
+    public void overflowDropsTheLargestStreamsVideoOnly() throws Exception {
+        final FanOutLanes.LaneStream a = new FanOutLanes.LaneStream();
+        final FanOutLanes.LaneStream b = new FanOutLanes.LaneStream();
+        write(a, "a-key", key());
+        write(a, "a-audio", audio());
+        write(b, "b-key", key());
+        for (int i = 0; i < 8; i++) {
+            write(a, "a-p" + i, inter()); // a goes over the bound by itself
+        }
+        write(b, "b-p", inter());
+        // a skips until its next keyframe, b goes on
+        write(a, "a-p-skipped", inter());
+        write(b, "b-p2", inter());
+
+        drain();
+        assertEquals(asList("a-key", "a-audio", "b-key", "b-p", "b-p2"), written);
+        assertTrue(lanes.getDroppedFrames() >= 9);
+        assertEquals(lanes.getDroppedFrames() * FRAME, lanes.getDroppedBytes());
+    }
+
+    @Test
+    public void skippingStreamResumesOnItsOwnKeyFrame() throws Exception {
+        final FanOutLanes.LaneStream a = new FanOutLanes.LaneStream();
+        final FanOutLanes.LaneStream b = new FanOutLanes.LaneStream();
+        for (int i = 0; i < 11; i++) {
+            write(a, "a-p" + i, inter());
+        }
+        drain();
+        written.clear();
+
+        blocked = new CountDownLatch(1);
+        lanes.execute(0, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        write(b, "b-key", key()); // not a's keyframe
+        write(a, "a-p", inter());
+        write(a, "a-key", key());
+        write(a, "a-p2", inter());
+        drain();
+        assertEquals(asList("b-key", "a-key", "a-p2"), written);
+    }
+
+    private void write(final FanOutLanes.LaneStream stream, final String name, final RtmpMessage message) {
+        lanes.execute(0, stream, message, () -> written.add(name));
+    }
+
+    private void drain() throws InterruptedException {
+        blocked.countDown();
+        final CountDownLatch done = new CountDownLatch(1);
+        lanes.execute(0, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static List<String> asList(final String... names) {
+        final List<String> list = new ArrayList<>();
+        Collections.addAll(list, names);
+        return list;
+    }
+
+    private static Video key() {
+        return video(0x17);
+    }
+
+    private static Video inter() {
+        return video(0x27);
+    }
+
+    private static Video video(final int flags) {
+        final byte[] data = new byte[FRAME];
+        data[0] = (byte) flags;
+        data[1] = 1; // a nalu, not the avc config
+        return new Video(0, ChannelBuffers.wrappedBuffer(data));
+    }
+
+    private static Audio audio() {
+        return new Audio(0, ChannelBuffers.wrappedBuffer(new byte[FRAME]));
+    }
+
+}
@@ -0,0 +1,79 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.DataMessage;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GopCacheTest {
+
+    @Test
+    public void replaysFromTheLastKeyFrame() {
+        final GopCache gopCache = new GopCache(10000, 10000);
+        gopCache.add(video(0, 0x27, 100)); // before any keyframe
+        final RtmpMessage key = video(40, 0x17, 100);
+        gopCache.add(key);
+        gopCache.add(audio(50));
+        gopCache.add(video(80, 0x27, 100));
+
+        final List<RtmpMessage> messages = gopCache.getMessages();
+        assertEquals(3, messages.size());
+        assertSame(key, messages.get(0));
+        assertEquals(204, gopCache.getCachedBytes());
+    }
+
+    @Test
+    public void overflowedGopIsNotReplayedUntilTheNextKeyFrame() {
+        final GopCache gopCache = new GopCache(1000, 10000);
+        gopCache.add(video(0, 0x17, 400));
+        gopCache.add(video(40, 0x27, 400));
+        gopCache.add(video(80, 0x27, 400)); // over the bytes
+        assertTrue(gopCache.getMessages().isEmpty());
+        assertEquals(1, gopCache.getOverflowCount());
+
+        gopCache.add(video(120, 0x27, 100)); // of the dropped gop
+        gopCache.add(audio(130));
+        assertTrue(gopCache.getMessages().isEmpty());
+        assertEquals(0, gopCache.getCachedBytes());
+
+        final RtmpMessage key = video(160, 0x17, 100);
+        gopCache.add(key);
+        assertEquals(1, gopCache.getMessages().size());
+        assertSame(key, gopCache.getMessages().get(0));
+    }
+
+    @Test
+    public void overflowedByDuration() {
+        final GopCache gopCache = new GopCache(100000, 1000);
+        gopCache.add(video(5_000_000_000L, 0x17, 100)); // past the 32 bit wrap
+        gopCache.add(video(5_000_000_900L, 0x27, 100));
+        assertEquals(2, gopCache.getMessages().size());
+        gopCache.add(video(5_000_001_100L, 0x27, 100));
+        assertTrue(gopCache.getMessages().isEmpty());
+    }
+
+    private static Video video(final long time, final int flags, final int size) {
+        final byte[] data = new byte[size];
+        data[0] = (byte) flags;
+        data[1] = 1;
+        return timed(new Video(0, ChannelBuffers.wrappedBuffer(data)), time);
+    }
+
+    private static Audio audio(final long time) {
+        return timed(new Audio(0, ChannelBuffers.wrappedBuffer(new byte[]{(byte) 0xaf, 1, 0, 0})), time);
+    }
+
+    private static <T extends DataMessage> T timed(final T message, final long time) {
+        message.getHeader().setTimestamp(time);
+        return message;
+    }
+
+}
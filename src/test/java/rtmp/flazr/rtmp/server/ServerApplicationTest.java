@@ -0,0 +1,53 @@
+package rtmp.flazr.rtmp.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rtmp.flazr.rtmp.RtmpConfig;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ServerApplicationTest {
+
+    @Rule
+    public final TemporaryFolder home = new TemporaryFolder();
+
+    private String serverHomeDir;
+
+    @Before
+    public void setUp() {
+        serverHomeDir = RtmpConfig.SERVER_HOME_DIR;
+        RtmpConfig.SERVER_HOME_DIR = home.getRoot().getPath();
+    }
+
+    @After
+    public void tearDown() {
+        RtmpConfig.SERVER_HOME_DIR = serverHomeDir;
+    }
+
+    @Test
+    public void streamFileIsUnderTheApplicationDirectory() throws Exception {
+        final File file = new ServerApplication("live").getStreamFile("/Camera1/");
+        assertEquals(new File(home.getRoot().getCanonicalFile(), "apps/live/camera1.flv"), file);
+    }
+
+    @Test
+    public void pathsAreNotStreamFiles() {
+        final ServerApplication application = new ServerApplication("live");
+        assertNull(application.getStreamFile("../../x"));
+        assertNull(application.getStreamFile(".."));
+        assertNull(application.getStreamFile("a/b"));
+        assertNull(application.getStreamFile("..\\x"));
+        assertNull(application.getStreamFile("x\u0000"));
+        assertNull(application.getStreamFile("x\ny"));
+        assertNull(application.getStreamFile(""));
+        assertNull(application.getStreamFile(null));
+        assertNull(new ServerApplication("..").getStreamFile("x"));
+    }
+
+}
@@ -0,0 +1,139 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Test;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Aggregate;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriberRegistryTest {
+
+    // a channel that records what is written to it
+    static final class TestChannel {
+        final List<Object> written = new ArrayList<>();
+        final Channel channel;
+        private DefaultChannelFuture closeFuture;
+
+        TestChannel(final int id) {
+            channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Channel.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getId":
+                        return id;
+                    case "getCloseFuture":
+                        return closeFuture;
+                    case "write":
+                        written.add(args[0]);
+                        return null;
+                    case "hashCode":
+                        return id;
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "TestChannel" + id;
+                    default:
+                        return null;
+                }
+            });
+            closeFuture = new DefaultChannelFuture(channel, false);
+        }
+
+        ChannelFuture close() {
+            closeFuture.setSuccess();
+            return closeFuture;
+        }
+    }
+
+    @Test
+    public void writesToTheSubscribersUntilTheyLeave() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final List<TestChannel> channels = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            channels.add(new TestChannel(i));
+            assertTrue(registry.add(channels.get(i).channel));
+        }
+        assertFalse(registry.add(channels.get(0).channel));
+
+        for (int i = 0; i < 90; i++) {
+            if (i % 2 == 0) {
+                assertTrue(registry.remove(channels.get(i).channel));
+            } else {
+                channels.get(i).close();
+            }
+        }
+        assertEquals(10, registry.size());
+
+        registry.write("message");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i < 90 ? 0 : 1, channels.get(i).written.size());
+        }
+
+        final TestChannel joiner = new TestChannel(100);
+        registry.add(joiner.channel);
+        registry.write("message");
+        assertEquals(1, joiner.written.size());
+        assertEquals(11, registry.size());
+    }
+
+    @Test
+    public void waitingSubscriberStartsOnAKeyFrame() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final TestChannel playing = new TestChannel(1);
+        final TestChannel waiting = new TestChannel(2);
+        registry.add(playing.channel);
+        registry.add(waiting.channel, true);
+
+        final Video inter = video(0x27);
+        final Audio audio = new Audio(0, ChannelBuffers.wrappedBuffer(new byte[]{(byte) 0xaf, 1, 0, 0}));
+        final Video key = video(0x17);
+        final Video next = video(0x27);
+        registry.write(inter);
+        registry.write(audio);
+        registry.write(key);
+        registry.write(next);
+
+        assertEquals(4, playing.written.size());
+        assertEquals(3, waiting.written.size());
+        assertEquals(audio, waiting.written.get(0));
+        assertEquals(key, waiting.written.get(1));
+        assertEquals(next, waiting.written.get(2));
+    }
+
+    @Test
+    public void waitingSubscriberGetsTheAudioOfAnAggregate() {
+        final SubscriberRegistry registry = new SubscriberRegistry();
+        final TestChannel playing = new TestChannel(1);
+        final TestChannel waiting = new TestChannel(2);
+        registry.add(playing.channel);
+        registry.add(waiting.channel, true);
+
+        final AggregatePacker packer = new AggregatePacker(1000);
+        packer.add(video(0x27));
+        packer.add(new Audio(20, ChannelBuffers.wrappedBuffer(new byte[]{(byte) 0xaf, 1, 0, 0})));
+        final Aggregate aggregate = packer.flush();
+        registry.write(aggregate);
+
+        assertEquals(aggregate, playing.written.get(0));
+        assertEquals(1, waiting.written.size());
+        final List<RtmpMessage> tags = ((Aggregate) waiting.written.get(0)).split();
+        assertEquals(1, tags.size());
+        assertTrue(tags.get(0).getHeader().isAudio());
+        assertEquals(20, tags.get(0).getHeader().getTime());
+    }
+
+    private static Video video(final int flags) {
+        return new Video(0, ChannelBuffers.wrappedBuffer(new byte[]{(byte) flags, 1, 0, 0, 0}));
+    }
+
+}
@@ -0,0 +1,90 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.junit.Test;
+import rtmp.flazr.rtmp.RtmpEncoder;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.Command;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteCoalescerTest {
+
+    private static final Channel CHANNEL = (Channel) Proxy.newProxyInstance(WriteCoalescerTest.class.getClassLoader(),
+            new Class[]{Channel.class}, (proxy, method, args) -> "hashCode".equals(method.getName()) ? 1 : null);
+
+    // the writes passed on, each completed at once
+    private final List<ChannelBuffer> written = new ArrayList<>();
+    private final ChannelHandlerContext ctx = (ChannelHandlerContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[]{ChannelHandlerContext.class}, (proxy, method, args) -> {
+                if ("getChannel".equals(method.getName())) {
+                    return CHANNEL;
+                }
+                if ("sendDownstream".equals(method.getName())) {
+                    final MessageEvent e = (MessageEvent) args[0];
+                    written.add((ChannelBuffer) e.getMessage());
+                    e.getFuture().setSuccess();
+                }
+                return null;
+            });
+
+    private final RtmpEncoder encoder = new RtmpEncoder();
+    private final WriteCoalescer coalescer = new WriteCoalescer(16384, 60000);
+
+    @Test
+    public void mediaIsCoalescedAndCommandsPassStraightThrough() {
+        final ChannelBuffer first = encode(audio(23));
+        final ChannelBuffer second = encode(audio(46)); // a SMALL header, the type is not in it
+        final ChannelFuture firstFuture = write(first);
+        final ChannelFuture secondFuture = write(second);
+        assertTrue(written.isEmpty());
+        assertFalse(firstFuture.isDone());
+
+        final ChannelBuffer command = encode(Command.playFailed("none"));
+        final ChannelFuture commandFuture = write(command);
+        assertEquals(2, written.size()); // what was pending goes first
+        assertEquals(ChannelBuffers.wrappedBuffer(first, second), written.get(0));
+        assertEquals(command, written.get(1));
+        assertTrue(firstFuture.isSuccess());
+        assertTrue(secondFuture.isSuccess());
+        assertTrue(commandFuture.isSuccess());
+        assertEquals(1, coalescer.getFlushCount());
+        assertEquals(2, coalescer.getCoalescedCount());
+    }
+
+    private ChannelBuffer encode(final RtmpMessage message) {
+        final ChannelBuffer out = encoder.encode(message);
+        return out.slice(out.readerIndex(), out.readableBytes());
+    }
+
+    private ChannelFuture write(final ChannelBuffer buffer) {
+        final ChannelFuture future = new DefaultChannelFuture(CHANNEL, false);
+        coalescer.writeRequested(ctx, new DownstreamMessageEvent(CHANNEL, future, buffer.duplicate(), null));
+        return future;
+    }
+
+    private static Audio audio(final int time) {
+        final byte[] data = new byte[300];
+        data[0] = (byte) 0xaf;
+        data[1] = 1;
+        data[299] = (byte) time;
+        final Audio audio = new Audio(time, ChannelBuffers.wrappedBuffer(data));
+        audio.getHeader().setStreamId(1);
+        return audio;
+    }
+
+}
@@ -0,0 +1,149 @@
+package rtmp.flazr.rtmp.server;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.channel.DownstreamMessageEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.UpstreamChannelStateEvent;
+import org.junit.Test;
+import rtmp.flazr.rtmp.RtmpMessage;
+import rtmp.flazr.rtmp.message.Aggregate;
+import rtmp.flazr.rtmp.message.Audio;
+import rtmp.flazr.rtmp.message.MessageType;
+import rtmp.flazr.rtmp.message.Video;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A channel that is not writable until the test says so: the queue fills up, drops video and resumes.
+ */
+public class WriteQueueHandlerTest {
+
+    private static final int FRAME = 100;
+
+    private boolean writable;
+    private final List<Object> written = new ArrayList<>();
+
+    private final Channel channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[]{Channel.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getId":
+                    case "hashCode":
+                        return 1;
+                    case "isWritable":
+                        return writable;
+                    default:
+                        return null;
+                }
+            });
+
+    private final ChannelHandlerContext ctx = (ChannelHandlerContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[]{ChannelHandlerContext.class}, (proxy, method, args) -> {
+                if ("getChannel".equals(method.getName())) {
+                    return channel;
+                }
+                if ("sendDownstream".equals(method.getName())) {
+                    written.add(((MessageEvent) args[0]).getMessage());
+                }
+                return null;
+            });
+
+    private final WriteQueueHandler handler = new WriteQueueHandler(10 * FRAME, 5 * FRAME / 2, 100 * FRAME, null);
+
+    @Test
+    public void videoIsDroppedOverTheHighWatermarkUntilAKeyFrameUnderTheLowOne() throws Exception {
+        final Video key = video(0x17);
+        final Audio audio = audio(0);
+        final ChannelFuture keyFuture = write(key);
+        write(audio);
+        final List<ChannelFuture> dropped = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            dropped.add(write(video(0x27))); // the ninth goes over, all queued non-key video is dropped
+        }
+        assertEquals(2 * FRAME, handler.getQueuedBytes());
+        dropped.add(write(video(0x27))); // skipped until a keyframe
+        final Video nextKey = video(0x17);
+        final Video next = video(0x27);
+        write(nextKey);
+        write(next);
+
+        assertTrue(written.isEmpty());
+        assertFalse(keyFuture.isDone());
+        for (ChannelFuture future : dropped) {
+            assertTrue(future.isSuccess()); // dropped on purpose, not failed
+        }
+        assertEquals(10, handler.getDroppedFrames());
+        assertEquals(0, handler.getDroppedKeyFrames());
+        assertEquals(10 * FRAME, handler.getDroppedBytes());
+
+        writable = true;
+        handler.channelInterestChanged(ctx, new UpstreamChannelStateEvent(channel, ChannelState.INTEREST_OPS, 1));
+        assertEquals(4, written.size());
+        assertEquals(key, written.get(0));
+        assertEquals(audio, written.get(1));
+        assertEquals(nextKey, written.get(2));
+        assertEquals(next, written.get(3));
+        assertEquals(0, handler.getQueuedBytes());
+    }
+
+    @Test
+    public void droppedAggregateKeepsItsAudio() throws Exception {
+        final AggregatePacker packer = new AggregatePacker(1000);
+        packer.add(video(0x27, 0));
+        packer.add(audio(20));
+        packer.add(video(0x27, 40));
+        final Aggregate aggregate = packer.flush();
+        final int aggregateSize = aggregate.getHeader().getSize();
+
+        write(video(0x17));
+        write(aggregate);
+        for (int i = 0; i < 9; i++) {
+            write(video(0x27));
+        }
+
+        writable = true;
+        handler.channelInterestChanged(ctx, new UpstreamChannelStateEvent(channel, ChannelState.INTEREST_OPS, 1));
+        assertEquals(2, written.size());
+        final Aggregate rest = (Aggregate) written.get(1);
+        final List<RtmpMessage> tags = rest.split();
+        assertEquals(1, tags.size());
+        assertEquals(MessageType.AUDIO, tags.get(0).getHeader().getMessageType());
+        assertEquals(20, tags.get(0).getHeader().getTime());
+        assertEquals(9 * FRAME + aggregateSize - rest.getHeader().getSize(), handler.getDroppedBytes());
+    }
+
+    private ChannelFuture write(final RtmpMessage message) {
+        final ChannelFuture future = new DefaultChannelFuture(channel, false);
+        handler.writeRequested(ctx, new DownstreamMessageEvent(channel, future, message, null));
+        return future;
+    }
+
+    private static Video video(final int flags) {
+        return video(flags, 0);
+    }
+
+    private static Video video(final int flags, final int time) {
+        final byte[] data = new byte[FRAME];
+        data[0] = (byte) flags;
+        data[1] = 1; // a nalu, not the avc config
+        return new Video(time, ChannelBuffers.wrappedBuffer(data));
+    }
+
+    private static Audio audio(final int time) {
+        final byte[] data = new byte[FRAME];
+        data[0] = (byte) 0xaf;
+        data[1] = 1;
+        return new Audio(time, ChannelBuffers.wrappedBuffer(data));
+    }
+
+}